@@ -0,0 +1,64 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.Firmware;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: firmware file is mapped, BIN is located and its blocks count is read.
+ */
+@Name("zoomeditor.BinLocate")
+@Label("BIN Location")
+@Category(FlightRecorderSupport.CATEGORY)
+@Description("Firmware file mapping and BIN search")
+public class BinLocateEvent extends Event implements FirmwareEvents.BinLocate {
+    @Label("Firmware File")
+    private String firmwareFile;
+
+    @Label("BIN Start Position")
+    @DataAmount(DataAmount.BYTES)
+    private long binStartPosition;
+
+    @Label("BIN Blocks")
+    private int binBlocksCount;
+
+    @Label("BIN Size")
+    @DataAmount(DataAmount.BYTES)
+    private long binSize;
+
+    @Label("BIN Position From Cache")
+    private boolean fromCache;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    public BinLocateEvent() {
+        begin();
+    }
+
+    /**
+     * Commits the event, if it is enabled.
+     *
+     * @param firm      firmware with BIN image
+     * @param fromCache true, if BIN position is taken from the parse cache
+     */
+    @Override
+    public void report(Firmware firm, boolean fromCache) {
+        if (shouldCommit()) {
+            firmwareFile = firm.getFirmwareFile().getName();
+            binStartPosition = firm.getBinStartPosition();
+            binBlocksCount = firm.getBinBlocksCount();
+            binSize = (long) Firmware.BLOCK_SIZE * firm.getBinBlocksCount();
+            this.fromCache = fromCache;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.Patch;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: blocks are allocated for the patch.
+ */
+@Name("zoomeditor.BlockAllocation")
+@Label("Block Allocation")
+@Category(FlightRecorderSupport.CATEGORY)
+@Description("Allocation of free blocks for an injected patch")
+public class BlockAllocationEvent extends Event implements FirmwareEvents.BlockAllocation {
+    @Label("File Name")
+    private String fileName;
+
+    @Label("Blocks")
+    private int blocksCount;
+
+    @Label("First Block Address")
+    private int firstAddress;
+
+    @Label("Extents")
+    private int extentsCount;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    public BlockAllocationEvent() {
+        begin();
+    }
+
+    /**
+     * Commits the event, if it is enabled.
+     *
+     * @param patch  patch
+     * @param blocks allocated block addresses
+     */
+    @Override
+    public void report(Patch patch, int[] blocks) {
+        if (shouldCommit()) {
+            fileName = patch.getFileName();
+            blocksCount = blocks.length;
+            firstAddress = blocks.length > 0 ? blocks[0] : -1;
+            extentsCount = 0;
+            for (int i = 0; i < blocks.length; i++) {
+                if (i == 0 || blocks[i] != blocks[i - 1] + 1) {
+                    extentsCount++;
+                }
+            }
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.IntegrityError;
+import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.service.PatchService;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: block chain of one patch is walked and the patch name is extracted.
+ * Chains are walked in parallel, so events of one firmware overlap.
+ */
+@Name("zoomeditor.ChainWalk")
+@Label("Chain Walk")
+@Category(FlightRecorderSupport.CATEGORY)
+@Description("Walk of one patch block chain during firmware loading")
+public class ChainWalkEvent extends Event implements FirmwareEvents.ChainWalk {
+    @Label("File Name")
+    private String fileName;
+
+    @Label("Patch Name")
+    private String patchName;
+
+    @Label("Blocks")
+    private int blocksCount;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    private long size;
+
+    @Label("Integrity Error")
+    private String error;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    public ChainWalkEvent() {
+        begin();
+    }
+
+    /**
+     * Commits the event, if it is enabled.
+     *
+     * @param patch patch
+     * @param error integrity error or null, if chain is valid
+     */
+    @Override
+    public void report(Patch patch, IntegrityError error) {
+        if (shouldCommit()) {
+            fileName = patch.getFileName();
+            patchName = patch.getName();
+            blocksCount = PatchService.calculatePatchBlocksCount(patch.getSize());
+            size = patch.getSize();
+            this.error = error != null ? error.toString() : null;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Recording, that is started by the application itself.
+ */
+class ContinuousRecording {
+
+    private ContinuousRecording() {
+    }
+
+    static void start(Path destination, long maxAgeMinutes) throws IOException, ParseException {
+        Configuration configuration;
+        try (Reader reader = new InputStreamReader(Objects.requireNonNull(ContinuousRecording.class.getClassLoader()
+                .getResourceAsStream(FlightRecorderSupport.SETTINGS_FILE)), StandardCharsets.UTF_8)) {
+            configuration = Configuration.create(reader);
+        }
+        if (destination.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(destination.toAbsolutePath().getParent());
+        }
+        Recording recording = new Recording(configuration);
+        recording.setName("Zoom Firmware Editor");
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+        recording.setDestination(destination);
+        recording.setDumpOnExit(true);
+        recording.start();
+    }
+
+}
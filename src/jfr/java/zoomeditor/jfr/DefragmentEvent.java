@@ -0,0 +1,72 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.DefragmentationPlan;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: data section of the firmware is compacted.
+ */
+@Name("zoomeditor.Defragment")
+@Label("Defragment")
+@Category(FlightRecorderSupport.CATEGORY)
+@Description("Compaction of the data section before save")
+public class DefragmentEvent extends Event implements FirmwareEvents.Defragment {
+    @Label("Moved Blocks")
+    private int movedBlocks;
+
+    @Label("Copied Bytes")
+    @DataAmount(DataAmount.BYTES)
+    private long copiedBytes;
+
+    @Label("Rewritten Headers")
+    private int rewrittenHeaders;
+
+    @Label("Cleared Blocks")
+    private int clearedBlocks;
+
+    @Label("Written Bytes")
+    @DataAmount(DataAmount.BYTES)
+    private long writtenBytes;
+
+    @Label("Used Blocks")
+    private int usedBlocks;
+
+    @Label("All Patches Rewritten")
+    private boolean allPatchesRewritten;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    public DefragmentEvent() {
+        begin();
+    }
+
+    /**
+     * Commits the event, if it is enabled.
+     *
+     * @param plan                executed plan
+     * @param allPatchesRewritten true, if all patches were rewritten because of cross-linked chains
+     */
+    @Override
+    public void report(DefragmentationPlan plan, boolean allPatchesRewritten) {
+        if (shouldCommit()) {
+            movedBlocks = plan.getMovesCount();
+            copiedBytes = plan.getBytesToCopy();
+            rewrittenHeaders = plan.getHeadersToRewrite();
+            clearedBlocks = plan.getBlocksToClear();
+            writtenBytes = plan.getBytesToWrite();
+            usedBlocks = plan.getUsedBlocksCount();
+            this.allPatchesRewritten = allPatchesRewritten;
+            commit();
+        }
+    }
+
+}
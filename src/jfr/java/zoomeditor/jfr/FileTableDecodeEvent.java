@@ -0,0 +1,55 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.Firmware;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: file table items are decoded (block chains are not walked yet).
+ */
+@Name("zoomeditor.FileTableDecode")
+@Label("File Table Decode")
+@Category(FlightRecorderSupport.CATEGORY)
+@Description("Decoding of file table items")
+public class FileTableDecodeEvent extends Event implements FirmwareEvents.FileTableDecode {
+    @Label("Firmware File")
+    private String firmwareFile;
+
+    @Label("File Table Position")
+    @DataAmount(DataAmount.BYTES)
+    private long fileTablePosition;
+
+    @Label("Patches")
+    private int patchesCount;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    public FileTableDecodeEvent() {
+        begin();
+    }
+
+    /**
+     * Commits the event, if it is enabled.
+     *
+     * @param firm         firmware with file table
+     * @param patchesCount number of decoded items
+     */
+    @Override
+    public void report(Firmware firm, int patchesCount) {
+        if (shouldCommit()) {
+            firmwareFile = firm.getFirmwareFile().getName();
+            fileTablePosition = firm.getFileTable().getFileTablePosition();
+            this.patchesCount = patchesCount;
+            commit();
+        }
+    }
+
+}
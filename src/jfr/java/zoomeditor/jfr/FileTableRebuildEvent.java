@@ -0,0 +1,48 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event: all file tables are rebuilt from the patch list.
+ */
+@Name("zoomeditor.FileTableRebuild")
+@Label("File Table Rebuild")
+@Category(FlightRecorderSupport.CATEGORY)
+@Description("Rebuilding of all file tables from the patch list")
+public class FileTableRebuildEvent extends Event implements FirmwareEvents.FileTableRebuild {
+    @Label("Patches")
+    private int patchesCount;
+
+    @Label("Updated Tables")
+    private int tablesCount;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    public FileTableRebuildEvent() {
+        begin();
+    }
+
+    /**
+     * Commits the event, if it is enabled.
+     *
+     * @param patchesCount number of written items
+     * @param tablesCount  number of updated file tables
+     */
+    @Override
+    public void report(int patchesCount, int tablesCount) {
+        if (shouldCommit()) {
+            this.patchesCount = patchesCount;
+            this.tablesCount = tablesCount;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+
+import java.nio.file.Path;
+
+/**
+ * Flight Recorder implementation of firmware events. Loaded by name only if jdk.jfr is available.
+ * Event data is collected only if a recording has the event enabled.
+ */
+public class FlightRecorderEvents implements FirmwareEvents {
+
+    @Override
+    public BinLocate binLocate() {
+        return new BinLocateEvent();
+    }
+
+    @Override
+    public FileTableDecode fileTableDecode() {
+        return new FileTableDecodeEvent();
+    }
+
+    @Override
+    public ChainWalk chainWalk() {
+        return new ChainWalkEvent();
+    }
+
+    @Override
+    public BlockAllocation blockAllocation() {
+        return new BlockAllocationEvent();
+    }
+
+    @Override
+    public Inject inject() {
+        return new InjectEvent();
+    }
+
+    @Override
+    public Remove remove() {
+        return new RemoveEvent();
+    }
+
+    @Override
+    public Defragment defragment() {
+        return new DefragmentEvent();
+    }
+
+    @Override
+    public FileTableRebuild fileTableRebuild() {
+        return new FileTableRebuildEvent();
+    }
+
+    @Override
+    public Save save() {
+        return new SaveEvent();
+    }
+
+    @Override
+    public void startContinuousRecording(Path destination, long maxAgeMinutes) throws Exception {
+        ContinuousRecording.start(destination, maxAgeMinutes);
+    }
+
+}
@@ -0,0 +1,66 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.service.PatchService;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Flight Recorder event: patches are injected into the firmware.
+ */
+@Name("zoomeditor.Inject")
+@Label("Inject")
+@Category(FlightRecorderSupport.CATEGORY)
+@Description("Injection of patches (allocation, block writing and file table rebuilding)")
+public class InjectEvent extends Event implements FirmwareEvents.Inject {
+    @Label("File Names")
+    private String fileNames;
+
+    @Label("Patches")
+    private int patchesCount;
+
+    @Label("Blocks")
+    private int blocksCount;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    private long size;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    public InjectEvent() {
+        begin();
+    }
+
+    /**
+     * Commits the event, if it is enabled.
+     *
+     * @param patches injected patches
+     */
+    @Override
+    public void report(List<Patch> patches) {
+        if (shouldCommit()) {
+            fileNames = patches.stream().map(Patch::getFileName).collect(Collectors.joining(", "));
+            patchesCount = patches.size();
+            blocksCount = 0;
+            size = 0;
+            for (Patch patch : patches) {
+                blocksCount += PatchService.calculatePatchBlocksCount(patch.getSize());
+                size += patch.getSize();
+            }
+            commit();
+        }
+    }
+
+}
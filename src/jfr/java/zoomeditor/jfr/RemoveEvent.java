@@ -0,0 +1,66 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.service.PatchService;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Flight Recorder event: patches are removed from the firmware.
+ */
+@Name("zoomeditor.Remove")
+@Label("Remove")
+@Category(FlightRecorderSupport.CATEGORY)
+@Description("Removal of patches (block release and file table rebuilding)")
+public class RemoveEvent extends Event implements FirmwareEvents.Remove {
+    @Label("File Names")
+    private String fileNames;
+
+    @Label("Patches")
+    private int patchesCount;
+
+    @Label("Released Blocks")
+    private int blocksCount;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    private long size;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    public RemoveEvent() {
+        begin();
+    }
+
+    /**
+     * Commits the event, if it is enabled.
+     *
+     * @param patches removed patches
+     */
+    @Override
+    public void report(List<Patch> patches) {
+        if (shouldCommit()) {
+            fileNames = patches.stream().map(Patch::getFileName).collect(Collectors.joining(", "));
+            patchesCount = patches.size();
+            blocksCount = 0;
+            size = 0;
+            for (Patch patch : patches) {
+                blocksCount += PatchService.calculatePatchBlocksCount(patch.getSize());
+                size += patch.getSize();
+            }
+            commit();
+        }
+    }
+
+}
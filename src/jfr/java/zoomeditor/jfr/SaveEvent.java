@@ -0,0 +1,68 @@
+package jfr.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.Firmware;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Flight Recorder event: modified firmware is saved (including defragmentation and file table rebuilding).
+ */
+@Name("zoomeditor.Save")
+@Label("Save")
+@Category(FlightRecorderSupport.CATEGORY)
+@Description("Saving of the modified firmware file")
+public class SaveEvent extends Event implements FirmwareEvents.Save {
+    @Label("Target File")
+    private String targetFile;
+
+    @Label("Save Mode")
+    private String saveMode;
+
+    @Label("Modified BIN Blocks")
+    private int modifiedBlocks;
+
+    @Label("File Size")
+    @DataAmount(DataAmount.BYTES)
+    private long fileSize;
+
+    @Label("Success")
+    private boolean success;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    public SaveEvent() {
+        begin();
+    }
+
+    /**
+     * Commits the event, if it is enabled.
+     *
+     * @param firm     saved firmware
+     * @param filePath saved file
+     * @param saveMode save mode setting
+     * @param success  true, if file is saved
+     */
+    @Override
+    public void report(Firmware firm, Path filePath, String saveMode, boolean success) {
+        if (shouldCommit()) {
+            targetFile = filePath.getFileName().toString();
+            this.saveMode = saveMode;
+            modifiedBlocks = firm.getModifiedBlocks().cardinality();
+            fileSize = success && Files.isRegularFile(filePath) ? filePath.toFile().length() : 0;
+            this.success = success;
+            commit();
+        }
+    }
+
+}
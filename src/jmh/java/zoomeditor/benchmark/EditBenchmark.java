@@ -0,0 +1,86 @@
+package jmh.java.zoomeditor.benchmark;
+
+import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.service.FileTableService;
+import main.java.zoomeditor.service.FirmwareService;
+import main.java.zoomeditor.service.PatchService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Modifying paths. Every invocation gets a freshly opened firmware, so edits do not accumulate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditBenchmark {
+    private Firmware firm;
+    private List<Patch> extraPatches;
+    private ArrayList<String> filesToRemove;
+
+    @Setup(Level.Invocation)
+    public void open(FirmwareFixture fixture) {
+        firm = FirmwareService.getInstance().initFirmware(fixture.firmware.getFirmwareFile());
+        extraPatches = PatchService.getInstance().makePatchesFromFiles(fixture.firmware.getExtraPatchFiles());
+        filesToRemove = new ArrayList<>();
+        for (int i = 0; i < firm.getPatches().size(); i += 2) {
+            filesToRemove.add(firm.getPatches().get(i).getFileName());
+        }
+    }
+
+    @Benchmark
+    public Firmware injectOneByOne() {
+        for (Patch patch : extraPatches) {
+            FirmwareService.getInstance().injectPatch(firm, patch, true);
+        }
+        return firm;
+    }
+
+    @Benchmark
+    public Firmware injectBatch() {
+        FirmwareService.getInstance().injectPatches(firm, extraPatches);
+        return firm;
+    }
+
+    @Benchmark
+    public Firmware removeHalf() {
+        FirmwareService.getInstance().removePatchFile(firm, filesToRemove);
+        return firm;
+    }
+
+    @Benchmark
+    public Firmware defragment() {
+        FirmwareService.getInstance().defragmentFirmware(firm);
+        return firm;
+    }
+
+    @Benchmark
+    public Firmware rebuildFileTables() {
+        FileTableService.getInstance().rebuildAllFileTables(firm);
+        return firm;
+    }
+
+    @Benchmark
+    public boolean removeAndSave(FirmwareFixture fixture) {
+        FirmwareService.getInstance().removePatchFile(firm, filesToRemove);
+        return FirmwareService.getInstance().saveModifiedFirmwareFile(firm, fixture.outputFile);
+    }
+
+}
@@ -0,0 +1,61 @@
+package jmh.java.zoomeditor.benchmark;
+
+import main.java.ZoomFirmwareEditor;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.LogManager;
+
+/**
+ * Synthetic firmware, shared by all benchmark iterations of one parameter combination.
+ */
+@State(Scope.Benchmark)
+public class FirmwareFixture {
+    @Param({"2048", "8192"})
+    public int blocksCount;
+
+    @Param({"20", "200"})
+    public int patchesCount;
+
+    @Param({"8000", "30000"})
+    public int patchSize;
+
+    @Param({"0.0", "0.5", "1.0"})
+    public double fragmentation;
+
+    public SyntheticFirmware firmware;
+    public Path outputFile;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        LogManager.getLogManager().reset(); // services log every operation
+        ZoomFirmwareEditor.loadConfiguration();
+        ZoomFirmwareEditor.setProperty("excludeSequenceFiles", "false");
+        ZoomFirmwareEditor.setProperty("enableDefragmentation", "false"); // defragmentation is measured separately
+        Path directory = Files.createTempDirectory("zfe-benchmark");
+        ZoomFirmwareEditor.setProperty("parseCache", "false"); // every open is a full parse, unless benchmark enables it
+        ZoomFirmwareEditor.setProperty("parseCacheDir", directory.toString());
+        firmware = new SyntheticFirmware(directory, blocksCount, patchesCount, patchSize, fragmentation, 10, 42);
+        outputFile = directory.resolve("OUTPUT.exe");
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        File[] files = firmware.getDirectory().toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(firmware.getDirectory());
+    }
+
+}
@@ -0,0 +1,68 @@
+package jmh.java.zoomeditor.benchmark;
+
+import main.java.ZoomFirmwareEditor;
+import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.service.FileTableService;
+import main.java.zoomeditor.service.FirmwareService;
+import main.java.zoomeditor.util.ByteUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only paths: opening the firmware (with and without parse cache), BIN search and walking of block chains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"false", "true"})
+    public String parseCache;
+
+    private Firmware firm;
+    private MappedByteBuffer installer;
+
+    @Setup(Level.Trial)
+    public void open(FirmwareFixture fixture) throws IOException {
+        ZoomFirmwareEditor.setProperty("parseCache", parseCache);
+        firm = FirmwareService.getInstance().initFirmware(fixture.firmware.getFirmwareFile());
+        try (FileChannel channel = FileChannel.open(fixture.firmware.getFirmwareFile().toPath(), StandardOpenOption.READ)) {
+            installer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Benchmark
+    public Firmware openFirmware(FirmwareFixture fixture) {
+        return FirmwareService.getInstance().initFirmware(fixture.firmware.getFirmwareFile());
+    }
+
+    @Benchmark
+    public int findBin() {
+        return ByteUtils.indexOf(installer, Firmware.BIN_START_PATTERN, 0);
+    }
+
+    @Benchmark
+    public Firmware walkChains() {
+        FileTableService.getInstance().fillPatchesAndBlocks(firm);
+        return firm;
+    }
+
+}
@@ -0,0 +1,189 @@
+package jmh.java.zoomeditor.benchmark;
+
+import main.java.zoomeditor.model.FileTable;
+import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.Patch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of synthetic firmware installers, so benchmarks do not need original ZOOM updaters.
+ * Installer consists of random "updater" bytes, BIN with 4 file tables and patches, and random tail bytes.
+ * Patch files are written next to the installer.
+ */
+public class SyntheticFirmware {
+    private static final int PAYLOAD_SIZE = Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE;
+    private static final int INSTALLER_HEAD_SIZE = 300 * 1024;
+    private static final int INSTALLER_TAIL_SIZE = 60 * 1024;
+    private static final int EMPTY_ADDRESS = 0xFFFF;
+
+    private final Path directory;
+    private final File firmwareFile;
+    private final List<File> patchFiles = new ArrayList<>();
+    private final List<File> extraPatchFiles = new ArrayList<>();
+
+    /**
+     * Generates the installer and patch files.
+     *
+     * @param directory     output directory
+     * @param blocksCount   BIN blocks count (including system blocks)
+     * @param patchesCount  number of patches in the BIN
+     * @param patchSize     average patch size in bytes
+     * @param fragmentation share of patch blocks (0..1), that are placed out of order
+     * @param extraCount    number of patch files, that are not injected (can be used for injection)
+     * @param seed          random seed
+     * @throws IOException if files cannot be written
+     */
+    public SyntheticFirmware(Path directory, int blocksCount, int patchesCount, int patchSize, double fragmentation,
+                             int extraCount, long seed) throws IOException {
+        this.directory = directory;
+        Random random = new Random(seed);
+        byte[] bin = new byte[blocksCount * Firmware.BLOCK_SIZE];
+        Arrays.fill(bin, (byte) 0xFF);
+        System.arraycopy(Firmware.BIN_START_PATTERN, 0, bin, 0, Firmware.BIN_START_PATTERN.length);
+        putShort(bin, Firmware.BIN_BLOCKS_COUNT_OFFSET, blocksCount);
+        for (int i = 0; i < Firmware.FILE_TABLES_COUNT; i++) {
+            int position = getFileTablePosition(i);
+            bin[position] = 0x01;
+            bin[position + 1] = (byte) 0xA5;
+            bin[position + 4] = (byte) (i == Firmware.FILE_TABLES_COUNT - 1 ? 0xFF : 0x00); // last table is main
+        }
+
+        List<Integer> freeAddresses = new ArrayList<>();
+        for (int address = 1; address < blocksCount - Firmware.FIRST_DATA_BLOCK; address++) {
+            freeAddresses.add(address);
+        }
+        for (int i = 0; i < freeAddresses.size(); i++) {
+            if (random.nextDouble() < fragmentation) {
+                Collections.swap(freeAddresses, i, random.nextInt(freeAddresses.size()));
+            }
+        }
+
+        int freePointer = 0;
+        for (int n = 0; n < patchesCount; n++) {
+            String fileName = String.format("P%04d.ZD2", n);
+            byte[] content = makePatchContent(random, patchSize / 2 + random.nextInt(patchSize), "PATCH" + n);
+            int patchBlocksCount = (content.length + PAYLOAD_SIZE - 1) / PAYLOAD_SIZE;
+            if (freePointer + patchBlocksCount > freeAddresses.size()
+                    || (n + 1) * FileTable.ITEM_SIZE >= 2 * Firmware.BLOCK_SIZE) {
+                throw new IllegalArgumentException("Patches do not fit into " + blocksCount + " blocks");
+            }
+            int[] addresses = new int[patchBlocksCount];
+            for (int i = 0; i < patchBlocksCount; i++) {
+                addresses[i] = freeAddresses.get(freePointer++);
+            }
+            writeChain(bin, content, addresses);
+            for (int i = 0; i < Firmware.FILE_TABLES_COUNT; i++) {
+                writeFileTableItem(bin, getFileTablePosition(i) + FileTable.SYSTEM_DATA_SIZE + n * FileTable.ITEM_SIZE,
+                        fileName, addresses[0], content.length);
+            }
+            patchFiles.add(writeFile(fileName, content));
+        }
+        for (int n = 0; n < extraCount; n++) {
+            extraPatchFiles.add(writeFile(String.format("X%04d.ZD2", n),
+                    makePatchContent(random, patchSize / 2 + random.nextInt(patchSize), "EXTRA" + n)));
+        }
+
+        firmwareFile = directory.resolve("SYNTH.exe").toFile();
+        byte[] head = new byte[INSTALLER_HEAD_SIZE];
+        random.nextBytes(head);
+        for (int i = 0; i < head.length; i++) {
+            if (head[i] == Firmware.BIN_START_PATTERN[0]) {
+                head[i] = 0x00; // BIN start pattern must not be found in the updater part
+            }
+        }
+        byte[] tail = new byte[INSTALLER_TAIL_SIZE];
+        random.nextBytes(tail);
+        try (OutputStream out = Files.newOutputStream(firmwareFile.toPath())) {
+            out.write(head);
+            out.write(bin);
+            out.write(tail);
+        }
+    }
+
+    public File getFirmwareFile() {
+        return firmwareFile;
+    }
+
+    public List<File> getPatchFiles() {
+        return patchFiles;
+    }
+
+    public List<File> getExtraPatchFiles() {
+        return extraPatchFiles;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private static int getFileTablePosition(int i) {
+        return Firmware.BLOCK_SIZE * (Firmware.FIRST_FILE_TABLE_BLOCK + i * 2);
+    }
+
+    private static void writeChain(byte[] bin, byte[] content, int[] addresses) {
+        for (int i = 0; i < addresses.length; i++) {
+            int blockStartPos = Firmware.BLOCK_SIZE * (Firmware.FIRST_DATA_BLOCK + addresses[i]);
+            int size = Math.min(PAYLOAD_SIZE, content.length - i * PAYLOAD_SIZE);
+            putShort(bin, blockStartPos + Firmware.BLOCK_PREV_ADDR_OFFSET, i == 0 ? EMPTY_ADDRESS : addresses[i - 1]);
+            putShort(bin, blockStartPos + Firmware.BLOCK_NEXT_ADDR_OFFSET,
+                    i == addresses.length - 1 ? EMPTY_ADDRESS : addresses[i + 1]);
+            putShort(bin, blockStartPos + Firmware.BLOCK_SIZE_OFFSET, size);
+            System.arraycopy(content, i * PAYLOAD_SIZE, bin, blockStartPos + Firmware.BLOCK_INFO_SIZE, size);
+        }
+    }
+
+    private static void writeFileTableItem(byte[] bin, int position, String fileName, int address, int size) {
+        putShort(bin, position + Patch.ADDR_OFFSET, address);
+        bin[position + Patch.ADDR_OFFSET + Patch.ADDR_SIZE] = 0x01;
+        for (int i = 0; i < Patch.SIZE_SIZE; i++) {
+            bin[position + Patch.SIZE_OFFSET + i] = (byte) (size >>> (8 * i));
+        }
+        Arrays.fill(bin, position + Patch.FILENAME_OFFSET, position + Patch.FILENAME_OFFSET + Patch.FILENAME_SIZE, (byte) 0);
+        byte[] fileNameBytes = fileName.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(fileNameBytes, 0, bin, position + Patch.FILENAME_OFFSET, fileNameBytes.length);
+    }
+
+    /**
+     * Makes random patch content with "OnOff" marker followed by the patch name (as in real effect files).
+     */
+    private static byte[] makePatchContent(Random random, int size, String name) {
+        byte[] content = new byte[Math.max(size, 64)];
+        random.nextBytes(content);
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == 'O') {
+                content[i] = 'o'; // only one "OnOff" marker
+            }
+        }
+        int position = 32;
+        byte[] marker = "OnOff".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(marker, 0, content, position, marker.length);
+        Arrays.fill(content, position + marker.length, position + 28, (byte) 0);
+        byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(nameBytes, 0, content, position + 8, nameBytes.length);
+        Arrays.fill(content, position + 20, position + 24, (byte) 0xFF);
+        return content;
+    }
+
+    private File writeFile(String fileName, byte[] content) throws IOException {
+        Path path = directory.resolve(fileName);
+        Files.write(path, content);
+        return path.toFile();
+    }
+
+    private static void putShort(byte[] bytes, int position, int value) {
+        bytes[position] = (byte) value;
+        bytes[position + 1] = (byte) (value >>> 8);
+    }
+
+}
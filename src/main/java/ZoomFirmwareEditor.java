@@ -1,9 +1,12 @@
 package main.java;
 
+import main.java.zoomeditor.cli.CommandLineRunner;
 import main.java.zoomeditor.controller.ApplicationController;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
 
 import javax.swing.*;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Locale;
 import java.util.Properties;
 import java.util.ResourceBundle;
@@ -20,15 +23,25 @@ public class ZoomFirmwareEditor {
     public static void main(String[] args) {
         System.setProperty("java.util.logging.SimpleFormatter.format", "%1$tF %1$tT %4$s %2$s(): %5$s%6$s%n"); // set log output into single line
         try {
-            properties = new Properties();
-            properties.load(ZoomFirmwareEditor.class.getClassLoader().getResourceAsStream(CONFIG_FILE));
-            messages = ResourceBundle.getBundle(MESSAGES_FILE, Locale.ROOT);
+            loadConfiguration();
         } catch (IOException e) {
             e.printStackTrace();
             log.log(Level.SEVERE, e.getMessage(), e);
             return;
         }
 
+        if ("true".equalsIgnoreCase(getProperty("flightRecording"))) {
+            FlightRecorderSupport.startContinuousRecording(
+                    Paths.get(getProperty("flightRecordingFile", "zoom-firmware-editor.jfr")),
+                    Long.parseLong(getProperty("flightRecordingMaxAge", "30")));
+        }
+
+        if (args.length > 0) {
+            // headless mode: firmware file and commands are given in command line
+            System.setProperty("java.awt.headless", "true");
+            System.exit(new CommandLineRunner(System.out, System.err).run(args));
+        }
+
         if ("true".equalsIgnoreCase(getProperty("useWindowsLookAndFeel"))) {
             try {
                 UIManager.setLookAndFeel("com.sun.java.swing.plaf.windows.WindowsLookAndFeel");
@@ -41,6 +54,17 @@ public class ZoomFirmwareEditor {
         SwingUtilities.invokeLater(ApplicationController::createAndShowGUI);
     }
 
+    /**
+     * Loads application settings and messages. Should be called before any service is used.
+     *
+     * @throws IOException if settings cannot be read
+     */
+    public static void loadConfiguration() throws IOException {
+        properties = new Properties();
+        properties.load(ZoomFirmwareEditor.class.getClassLoader().getResourceAsStream(CONFIG_FILE));
+        messages = ResourceBundle.getBundle(MESSAGES_FILE, Locale.ROOT);
+    }
+
     public static String getProperty(String key, String defaultValue) {
         String val = getProperty(key);
         return (val == null) ? defaultValue : val;
@@ -50,6 +74,16 @@ public class ZoomFirmwareEditor {
         return properties.getProperty(key);
     }
 
+    /**
+     * Overrides the setting for current run (the configuration file is not changed).
+     *
+     * @param key   setting name
+     * @param value setting value
+     */
+    public static void setProperty(String key, String value) {
+        properties.setProperty(key, value);
+    }
+
     public static String getMessage(String key) {
         return messages.getString(key);
     }
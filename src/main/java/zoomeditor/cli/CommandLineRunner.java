@@ -0,0 +1,590 @@
+package main.java.zoomeditor.cli;
+
+import main.java.zoomeditor.model.BatchResult;
+import main.java.zoomeditor.model.CatalogueEntry;
+import main.java.zoomeditor.model.ExtractionReport;
+import main.java.zoomeditor.model.DefragmentationPlan;
+import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.FirmwareCatalogue;
+import main.java.zoomeditor.model.IntegrityError;
+import main.java.zoomeditor.model.LibraryEntry;
+import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.model.PatchLibrary;
+import main.java.zoomeditor.model.RecoveryReport;
+import main.java.zoomeditor.service.BatchService;
+import main.java.zoomeditor.service.CatalogueService;
+import main.java.zoomeditor.service.FirmwareService;
+import main.java.zoomeditor.service.LibraryService;
+import main.java.zoomeditor.service.PatchService;
+import main.java.zoomeditor.service.RecoveryService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Headless mode: edits the firmware without GUI. Swing and AWT are never touched.
+ * <p>
+ * Usage: {@code <firmware> <command> [arguments] [<command> [arguments]]...}
+ * <p>
+ * Commands are executed one after another on the same firmware object, so several edits can be made in one run.
+ * Every command takes a fixed number of arguments, except the commands with a list of file names, which take
+ * the rest of arguments till "--" (or till the end of the command line). An argument, that is equal to a command
+ * name, inside a list without "--" is rejected, because it can be a file name as well as the next command.
+ * In batch mode ({@code --batch <output directory> <firmware or directory>... <command>...}) the same commands are
+ * applied to every firmware in parallel.
+ * Results are printed into standard output as tab-separated lines, errors are printed into standard error.
+ */
+public class CommandLineRunner {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String LIST = "list";
+    private static final String EXTRACT = "extract";
+    private static final String EXTRACT_ALL = "extract-all";
+    private static final String INJECT = "inject";
+    private static final String INJECT_LIBRARY = "inject-library";
+    private static final String REMOVE = "remove";
+    private static final String REORDER = "reorder";
+    private static final String DEFRAG = "defrag";
+    private static final String DEFRAG_PLAN = "defrag-plan";
+    private static final String RECOVER = "recover";
+    private static final String SAVE = "save";
+    private static final List<String> COMMANDS = Arrays.asList(LIST, EXTRACT, EXTRACT_ALL, INJECT, INJECT_LIBRARY,
+            REMOVE, REORDER, DEFRAG, DEFRAG_PLAN, RECOVER, SAVE);
+    private static final List<String> LIST_ARGUMENT_COMMANDS = Arrays.asList(EXTRACT, INJECT, INJECT_LIBRARY, REMOVE);
+    private static final List<String> BATCH_COMMANDS = Arrays.asList(LIST, INJECT, INJECT_LIBRARY, REMOVE, REORDER,
+            DEFRAG, DEFRAG_PLAN, RECOVER);
+    private static final String END_OF_LIST = "--";
+    private static final String BATCH_OPTION = "--batch";
+    private static final String LIBRARY_OPTION = "--library";
+    private static final String CATALOGUE_OPTION = "--catalogue";
+    private static final String USAGE = "Usage: <firmware> <command> [arguments] [<command> [arguments]]...\n"
+            + "   or: --batch <output directory> <firmware or directory>... [--] <command> [arguments]...\n"
+            + "       (batch commands: list, inject, inject-library, remove, reorder, defrag, defrag-plan, recover;"
+            + " files are saved automatically)\n"
+            + "   or: --library <directory>         index patch files of the library and print them\n"
+            + "   or: --catalogue <directory> [<file name or patch name>]\n"
+            + "                                     catalogue firmware files of the directory and print their patches\n"
+            + "                                     (or only firmware files, which contain given patch)\n"
+            + "Commands:\n"
+            + "  list                               print patches and blocks usage\n"
+            + "  extract <directory> <file name>... save patch files into directory\n"
+            + "  extract-all <directory>            save all patch files into directory\n"
+            + "  inject <patch file>...             inject patch files\n"
+            + "  inject-library <directory> <file name or patch name>...\n"
+            + "                                     inject patch files from the indexed library\n"
+            + "  remove <file name>...              remove patches\n"
+            + "  reorder <file name> <position>     move patch to given position (0-based)\n"
+            + "  defrag                             move all patches into the beginning of data section\n"
+            + "  defrag-plan                        print defragmentation plan without changing the firmware\n"
+            + "  recover                            reattach broken block chains and quarantine not recoverable blocks\n"
+            + "  save <firmware>                    save modified firmware\n"
+            + "Lists of file names (...) end with \"--\" or with the end of the command line, for example:\n"
+            + "  G1on.exe remove OLD.ZDL -- inject NEW.ZDL -- save NEW.exe";
+
+    private static final Logger log = Logger.getLogger(CommandLineRunner.class.getName());
+    private final FirmwareService firmwareService = FirmwareService.getInstance();
+    private final PatchService patchService = PatchService.getInstance();
+    private final RecoveryService recoveryService = RecoveryService.getInstance();
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public CommandLineRunner(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Parses the command line and executes all commands.
+     *
+     * @param args command line arguments
+     * @return exit code
+     */
+    public int run(String[] args) {
+        if (args.length > 0 && BATCH_OPTION.equals(args[0])) {
+            return runBatch(args);
+        }
+        if (args.length > 0 && LIBRARY_OPTION.equals(args[0])) {
+            return runLibrary(args);
+        }
+        if (args.length > 0 && CATALOGUE_OPTION.equals(args[0])) {
+            return runCatalogue(args);
+        }
+        if (args.length < 2 || !COMMANDS.contains(args[1])) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        List<List<String>> commands;
+        try {
+            commands = parseCommands(args, 1);
+        } catch (IllegalArgumentException e) {
+            printError("arguments", e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        Firmware firm;
+        try {
+            firm = firmwareService.initFirmware(new File(args[0]));
+        } catch (Exception e) {
+            log.log(Level.SEVERE, e.getMessage(), e);
+            printError("open", e.getMessage());
+            return EXIT_ERROR;
+        }
+        return runCommands(firm, commands);
+    }
+
+    /**
+     * Splits the command line into commands with their arguments.
+     * Every command takes its fixed arguments; commands with a list of file names also take the rest of arguments
+     * till {@link #END_OF_LIST} or till the end of the command line. "--" after a command without a list is skipped.
+     *
+     * @param args command line arguments
+     * @param from index of the first command
+     * @return commands: name followed by arguments
+     * @throws IllegalArgumentException if a command is unknown, arguments are missing or a list is ambiguous
+     */
+    private List<List<String>> parseCommands(String[] args, int from) {
+        List<String> argList = Arrays.asList(args);
+        List<List<String>> commands = new ArrayList<>();
+        int i = from;
+        while (i < args.length) {
+            String command = args[i++];
+            if (!COMMANDS.contains(command)) {
+                throw new IllegalArgumentException("Unknown command: " + command);
+            }
+            int end = i + getFixedArgumentsCount(command);
+            if (end > args.length) {
+                throw new IllegalArgumentException("Missing arguments of " + command);
+            }
+            if (LIST_ARGUMENT_COMMANDS.contains(command)) {
+                int listEnd = argList.subList(end, args.length).indexOf(END_OF_LIST);
+                listEnd = listEnd == -1 ? args.length : end + listEnd;
+                if (listEnd == end) {
+                    throw new IllegalArgumentException("Missing arguments of " + command);
+                }
+                if (listEnd == args.length) {
+                    for (String arg : argList.subList(end, listEnd)) {
+                        if (COMMANDS.contains(arg)) {
+                            throw new IllegalArgumentException("Ambiguous argument of " + command + ": " + arg
+                                    + " (end the list with " + END_OF_LIST + ")");
+                        }
+                    }
+                }
+                end = listEnd;
+            }
+            List<String> commandLine = new ArrayList<>(argList.subList(i - 1, end));
+            commands.add(commandLine);
+            i = end < args.length && END_OF_LIST.equals(args[end]) ? end + 1 : end;
+        }
+        return commands;
+    }
+
+    /**
+     * Returns the number of arguments, that are always taken by the command (list of file names is not counted).
+     *
+     * @param command command name
+     * @return arguments count
+     */
+    private static int getFixedArgumentsCount(String command) {
+        switch (command) {
+            case EXTRACT:
+            case EXTRACT_ALL:
+            case INJECT_LIBRARY:
+            case SAVE:
+                return 1;
+            case REORDER:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Executes commands one after another.
+     *
+     * @param firm     firmware
+     * @param commands commands: name followed by arguments (see {@link #parseCommands(String[], int)})
+     * @return exit code
+     */
+    private int runCommands(Firmware firm, List<List<String>> commands) {
+        for (List<String> commandLine : commands) {
+            String command = commandLine.get(0);
+            try {
+                execute(firm, command, commandLine.subList(1, commandLine.size()));
+            } catch (IllegalArgumentException e) {
+                printError(command, e.getMessage());
+                err.println(USAGE);
+                return EXIT_USAGE;
+            } catch (Exception e) {
+                log.log(Level.SEVERE, e.getMessage(), e);
+                printError(command, e.getMessage());
+                return EXIT_ERROR;
+            }
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * Indexes the patch library and prints its entries.
+     *
+     * @param args command line arguments
+     * @return exit code
+     */
+    private int runLibrary(String[] args) {
+        if (args.length != 2) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            PatchLibrary library = LibraryService.getInstance().indexLibrary(Paths.get(args[1]));
+            for (LibraryEntry entry : library.getEntries()) {
+                out.println("library\t" + entry.getFileName() + "\t" + (entry.getName() != null ? entry.getName() : "")
+                        + "\t" + entry.getFormat() + "\t" + entry.getSize() + "\t" + entry.getBlocksCount()
+                        + "\t" + entry.getFile());
+            }
+            out.println("indexed\t" + library.getEntries().size() + "\t" + library.getRescannedCount());
+            return EXIT_OK;
+        } catch (Exception e) {
+            log.log(Level.SEVERE, e.getMessage(), e);
+            printError("library", e.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+
+    /**
+     * Catalogues firmware files of the directory and prints their patch lists.
+     * If the patch key is given, then only firmware files, that contain the patch, are printed.
+     *
+     * @param args command line arguments
+     * @return exit code
+     */
+    private int runCatalogue(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            FirmwareCatalogue catalogue = CatalogueService.getInstance().indexCatalogue(Paths.get(args[1]));
+            if (args.length == 3) {
+                for (CatalogueEntry entry : catalogue.find(args[2])) {
+                    int i = entry.indexOfPatch(args[2]);
+                    out.println("found\t" + entry.getFileName() + "\t" + entry.getPatchFileName(i)
+                            + "\t" + (entry.getPatchName(i) != null ? entry.getPatchName(i) : "")
+                            + "\t" + entry.getFile());
+                }
+            } else {
+                for (CatalogueEntry entry : catalogue.getEntries()) {
+                    out.println("firmware\t" + entry.getFileName() + "\t" + entry.getPatchesCount()
+                            + "\t" + entry.getUsedBlocksCount() + "\t" + (entry.getBinBlocksCount() - Firmware.SYS_BLOCKS_COUNT)
+                            + "\t" + entry.getFile());
+                    for (int i = 0; i < entry.getPatchesCount(); i++) {
+                        out.println("patch\t" + entry.getFileName() + "\t" + entry.getPatchFileName(i)
+                                + "\t" + (entry.getPatchName(i) != null ? entry.getPatchName(i) : "")
+                                + "\t" + entry.getPatchSize(i));
+                    }
+                }
+            }
+            out.println("catalogued\t" + catalogue.getEntries().size() + "\t" + catalogue.getRescannedCount());
+            return EXIT_OK;
+        } catch (Exception e) {
+            log.log(Level.SEVERE, e.getMessage(), e);
+            printError("catalogue", e.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+
+    /**
+     * Applies the same commands to several firmware files in parallel and saves them into output directory.
+     *
+     * @param args command line arguments
+     * @return exit code
+     */
+    private int runBatch(String[] args) {
+        int from = 2;
+        while (from < args.length && !COMMANDS.contains(args[from]) && !END_OF_LIST.equals(args[from])) {
+            from++;
+        }
+        if (from == 2 || from == args.length) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (COMMANDS.contains(args[from]) && new File(args[from]).exists()) {
+            printError("arguments", "Ambiguous argument: " + args[from]
+                    + " is a command and a file (end the list of firmware files with " + END_OF_LIST + ")");
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        List<List<String>> commands;
+        try {
+            commands = parseCommands(args, END_OF_LIST.equals(args[from]) ? from + 1 : from);
+        } catch (IllegalArgumentException e) {
+            printError("arguments", e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        if (commands.isEmpty()) {
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        for (List<String> commandLine : commands) {
+            if (!BATCH_COMMANDS.contains(commandLine.get(0))) {
+                printError(commandLine.get(0), "Command is not allowed in batch mode");
+                err.println(USAGE);
+                return EXIT_USAGE;
+            }
+        }
+
+        BatchService batchService = BatchService.getInstance();
+        List<File> firmwareFiles = batchService.collectFirmwareFiles(Arrays.stream(args, 2, from)
+                .map(File::new).collect(Collectors.toList()));
+        long start = System.nanoTime();
+        List<BatchResult> results = batchService.process(firmwareFiles, Paths.get(args[1]), firm -> {
+            // output of every firmware is printed at once, prefixed with firmware file name
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            ByteArrayOutputStream errorBuffer = new ByteArrayOutputStream();
+            int exitCode = new CommandLineRunner(new PrintStream(buffer, true), new PrintStream(errorBuffer, true))
+                    .runCommands(firm, commands);
+            synchronized (out) {
+                for (String line : buffer.toString().split("\\R")) {
+                    if (!line.isEmpty()) {
+                        out.println(firm.getFirmwareFile().getName() + "\t" + line);
+                    }
+                }
+            }
+            if (exitCode != EXIT_OK) {
+                throw new RuntimeException(errorBuffer.toString().trim());
+            }
+        });
+
+        int failedCount = 0;
+        for (BatchResult result : results) {
+            if (result.isSuccess()) {
+                out.println("result\t" + result.getFirmwareFile() + "\tok\t" + result.getElapsedMillis()
+                        + "\t" + result.getOutputFile());
+            } else {
+                failedCount++;
+                out.println("result\t" + result.getFirmwareFile() + "\tfailed\t" + result.getElapsedMillis()
+                        + "\t" + (result.getMessage() != null ? result.getMessage().replace('\n', ' ') : ""));
+            }
+        }
+        out.println("batch\t" + (results.size() - failedCount) + "\t" + failedCount
+                + "\t" + (System.nanoTime() - start) / 1_000_000);
+        return failedCount == 0 ? EXIT_OK : EXIT_ERROR;
+    }
+
+    private void execute(Firmware firm, String command, List<String> args) throws IOException {
+        switch (command) {
+            case LIST:
+                checkArgsCount(args, 0, 0);
+                list(firm);
+                break;
+            case EXTRACT:
+                checkArgsCount(args, 2, Integer.MAX_VALUE);
+                extract(firm, Paths.get(args.get(0)), args.subList(1, args.size()));
+                break;
+            case EXTRACT_ALL:
+                checkArgsCount(args, 1, 1);
+                extract(firm, Paths.get(args.get(0)),
+                        firm.getPatches().asList().stream().map(Patch::getFileName).collect(Collectors.toList()));
+                break;
+            case INJECT:
+                checkArgsCount(args, 1, Integer.MAX_VALUE);
+                inject(firm, args);
+                break;
+            case INJECT_LIBRARY:
+                checkArgsCount(args, 2, Integer.MAX_VALUE);
+                injectFromLibrary(firm, Paths.get(args.get(0)), args.subList(1, args.size()));
+                break;
+            case REMOVE:
+                checkArgsCount(args, 1, Integer.MAX_VALUE);
+                remove(firm, args);
+                break;
+            case REORDER:
+                checkArgsCount(args, 2, 2);
+                reorder(firm, args.get(0), parsePosition(args.get(1)));
+                break;
+            case DEFRAG:
+                checkArgsCount(args, 0, 0);
+                DefragmentationPlan plan = firmwareService.defragmentFirmware(firm);
+                out.println("defragmented\t" + firmwareService.getUsedBlocksCount(firm)
+                        + "\t" + firmwareService.getTotalBlocksCount(firm)
+                        + "\t" + plan.getMovesCount() + "\t" + plan.getBytesToCopy()
+                        + "\t" + plan.getHeadersToRewrite() + "\t" + plan.getBlocksToClear()
+                        + "\t" + plan.getBytesToWrite());
+                break;
+            case DEFRAG_PLAN:
+                checkArgsCount(args, 0, 0);
+                printDefragmentationPlan(firm);
+                break;
+            case RECOVER:
+                checkArgsCount(args, 0, 0);
+                recover(firm);
+                break;
+            case SAVE:
+                checkArgsCount(args, 1, 1);
+                save(firm, Paths.get(args.get(0)));
+                break;
+        }
+    }
+
+    private void list(Firmware firm) {
+        for (int i = 0; i < firm.getPatches().size(); i++) {
+            Patch patch = firm.getPatches().get(i);
+            out.println("patch\t" + i + "\t" + patch.getFileName() + "\t" + (patch.getName() != null ? patch.getName() : "")
+                    + "\t" + patch.getSize() + "\t" + PatchService.calculatePatchBlocksCount(patch.getSize()));
+        }
+        for (IntegrityError error : firm.getIntegrityErrors()) {
+            out.println("integrity\t" + error.getFileName() + "\t" + error.getAddress() + "\t" + error.getMessage());
+        }
+        out.println("blocks\t" + firmwareService.getUsedBlocksCount(firm) + "\t" + firmwareService.getTotalBlocksCount(firm));
+    }
+
+    private void extract(Firmware firm, Path directory, List<String> fileNames) throws IOException {
+        for (String fileName : fileNames) {
+            checkPatchExists(firm, fileName);
+        }
+        ExtractionReport report = patchService.savePatchFiles(firm, fileNames, directory);
+        for (String fileName : report.getExtractedFileNames()) {
+            out.println("extracted\t" + fileName + "\t" + directory.resolve(fileName));
+        }
+        out.println("extraction\t" + report.getExtractedFileNames().size() + "\t" + report.getExtractedBytes()
+                + "\t" + report.getElapsedMillis());
+        if (!report.isSuccess()) {
+            throw new IOException("Patch save failed: " + String.join(", ", report.getFailedFileNames()));
+        }
+    }
+
+    private void inject(Firmware firm, List<String> patchFiles) {
+        List<Patch> patches = patchService.makePatchesFromFiles(
+                patchFiles.stream().map(File::new).collect(Collectors.toList()));
+        firmwareService.injectPatches(firm, patches);
+        for (Patch patch : patches) {
+            out.println("injected\t" + patch.getFileName() + "\t" + patch.getSize()
+                    + "\t" + PatchService.calculatePatchBlocksCount(patch.getSize()));
+        }
+    }
+
+    private void injectFromLibrary(Firmware firm, Path directory, List<String> keys) throws IOException {
+        PatchLibrary library = LibraryService.getInstance().indexLibrary(directory);
+        List<LibraryEntry> entries = new ArrayList<>();
+        for (String key : keys) {
+            List<LibraryEntry> found = library.find(key);
+            if (found.size() != 1) {
+                throw new RuntimeException((found.isEmpty() ? "Patch is not found in library: "
+                        : "Several patches are found in library: ") + key);
+            }
+            entries.add(found.get(0));
+        }
+        List<Patch> patches = entries.parallelStream().map(patchService::makePatchFromLibraryEntry)
+                .collect(Collectors.toList());
+        firmwareService.injectPatches(firm, patches);
+        for (Patch patch : patches) {
+            out.println("injected\t" + patch.getFileName() + "\t" + patch.getSize()
+                    + "\t" + PatchService.calculatePatchBlocksCount(patch.getSize()));
+        }
+    }
+
+    private void remove(Firmware firm, List<String> fileNames) {
+        for (String fileName : fileNames) {
+            checkPatchExists(firm, fileName);
+        }
+        firmwareService.removePatchFile(firm, new ArrayList<>(fileNames));
+        for (String fileName : fileNames) {
+            out.println("removed\t" + fileName);
+        }
+    }
+
+    private void reorder(Firmware firm, String fileName, int position) {
+        checkPatchExists(firm, fileName);
+        int target = Math.min(position, firm.getPatches().size() - 1);
+        for (int i = firm.getPatches().indexOf(fileName); i != target; i = firm.getPatches().indexOf(fileName)) {
+            firmwareService.movePatchUpOrDown(firm, fileName, i > target);
+        }
+        out.println("moved\t" + fileName + "\t" + target);
+    }
+
+    /**
+     * Prints, what "defrag" is going to do: block moves, rewritten headers and cleared blocks.
+     * If block chains are cross-linked, then all patches are going to be rewritten instead.
+     *
+     * @param firm firmware
+     */
+    private void printDefragmentationPlan(Firmware firm) {
+        if (firmwareService.hasCrossLinkedChains(firm)) {
+            out.println("plan\trewrite-all\t" + firmwareService.getUsedBlocksCount(firm)
+                    + "\t" + firmwareService.getTotalBlocksCount(firm));
+            return;
+        }
+        DefragmentationPlan plan = firmwareService.planDefragmentation(firm);
+        out.println("plan\t" + firmwareService.getUsedBlocksCount(firm)
+                + "\t" + firmwareService.getTotalBlocksCount(firm)
+                + "\t" + plan.getMovesCount() + "\t" + plan.getBytesToCopy()
+                + "\t" + plan.getHeadersToRewrite() + "\t" + plan.getBlocksToClear()
+                + "\t" + plan.getBytesToWrite());
+        for (int i = 0; i < plan.getMovesCount(); i++) {
+            String fileName = firm.getBlockOwners().getOwnerFileName(plan.getSource(i));
+            out.println("move\t" + plan.getSource(i) + "\t" + plan.getTarget(i)
+                    + "\t" + (fileName != null ? fileName : ""));
+        }
+    }
+
+    private void recover(Firmware firm) {
+        RecoveryReport report = recoveryService.scan(firm);
+        recoveryService.recover(firm, report);
+        for (Patch patch : report.getRecoverableChains().keySet()) {
+            if (firm.getPatches().getByFileName(patch.getFileName()) == patch) {
+                out.println("recovered\t" + patch.getFileName());
+            }
+        }
+        out.println("recovery\t" + report.getRecoverableChains().size() + "\t" + firm.getQuarantinedBlocks().cardinality()
+                + "\t" + report.getOrphanedBlocks().cardinality() + "\t" + report.getCrossLinkedBlocks().cardinality());
+    }
+
+    private void save(Firmware firm, Path filePath) throws IOException {
+        if (!firmwareService.saveModifiedFirmwareFile(firm, filePath)) {
+            throw new IOException("Firmware save failed: " + filePath);
+        }
+        out.println("saved\t" + filePath);
+    }
+
+    private void checkArgsCount(List<String> args, int min, int max) {
+        if (args.size() < min || args.size() > max) {
+            throw new IllegalArgumentException("Invalid arguments count: " + args.size());
+        }
+    }
+
+    private int parsePosition(String value) {
+        try {
+            int position = Integer.parseInt(value);
+            if (position >= 0) {
+                return position;
+            }
+        } catch (NumberFormatException e) {
+            // invalid position is reported below
+        }
+        throw new IllegalArgumentException("Invalid position: " + value);
+    }
+
+    private void checkPatchExists(Firmware firm, String fileName) {
+        if (!firm.getPatches().contains(fileName)) {
+            throw new RuntimeException("Patch is not found: " + fileName);
+        }
+    }
+
+    private void printError(String command, String message) {
+        err.println("error\t" + command + "\t" + (message != null ? message.replace('\n', ' ') : ""));
+    }
+
+}
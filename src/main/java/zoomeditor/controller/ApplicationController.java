@@ -3,16 +3,32 @@ package main.java.zoomeditor.controller;
 import main.java.ZoomFirmwareEditor;
 import main.java.zoomeditor.gui.AppWindow;
 import main.java.zoomeditor.gui.MainPanel;
+import main.java.zoomeditor.gui.tablemodel.PatchTableModel;
+import main.java.zoomeditor.model.DefragmentationPlan;
 import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.IntegrityError;
 import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.model.PatchRegistry;
+import main.java.zoomeditor.model.RecoveryReport;
 import main.java.zoomeditor.service.FirmwareService;
 import main.java.zoomeditor.service.PatchService;
+import main.java.zoomeditor.service.RecoveryService;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.io.File;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +41,7 @@ public class ApplicationController {
     private MainPanel mainPanel;
     private File firmwareFile;
     private Firmware firm;
+    private SwingWorker<?, ?> currentTask; // firmware is used by the background task, GUI controls are disabled
     private final JFileChooser fc = new JFileChooser(
             ZoomFirmwareEditor.getProperty("defaultPath", System.getProperty("user.dir")));
     private final static String MODIFIED_FILE_PREFIX = "MODIFIED ";
@@ -63,27 +80,60 @@ public class ApplicationController {
      * Shows firmware selection dialog.
      */
     public void showOpenFirmwareDialog() {
-        try {
-            fc.setDialogTitle(ZoomFirmwareEditor.getMessage("openFirmwareTitle"));
-            fc.resetChoosableFileFilters();
-            fc.setFileFilter(new FileNameExtensionFilter(ZoomFirmwareEditor.getMessage("exeFileFilter"),
-                    "exe"));
-            int returnVal = fc.showOpenDialog(null);
-            if (returnVal == JFileChooser.APPROVE_OPTION) {
-                firmwareFile = fc.getSelectedFile();
-                updateTitle();
-                firm = firmwareService.initFirmware(firmwareFile);
-                appWindow.setMainCard();
-            }
-        } catch (Exception e) {
-            log.log(Level.SEVERE, e.getMessage(), e);
-            firm = null;
-            JOptionPane.showMessageDialog(null,
-                    ZoomFirmwareEditor.getMessage("invalidFirmwareError"),
-                    ZoomFirmwareEditor.getMessage("errorTitle"),
-                    JOptionPane.ERROR_MESSAGE);
+        if (currentTask != null) {
+            return;
+        }
+        fc.setDialogTitle(ZoomFirmwareEditor.getMessage("openFirmwareTitle"));
+        fc.resetChoosableFileFilters();
+        fc.setFileFilter(new FileNameExtensionFilter(ZoomFirmwareEditor.getMessage("exeFileFilter"),
+                "exe"));
+        int returnVal = fc.showOpenDialog(null);
+        if (returnVal == JFileChooser.APPROVE_OPTION) {
+            openFirmware(fc.getSelectedFile());
+        }
+    }
+
+    /**
+     * Opens the firmware in the background. Patch table is filled as soon as the file table is decoded,
+     * patch names appear while block chains are walked. Loading can be cancelled in the progress dialog.
+     *
+     * @param selectedFile firmware file
+     */
+    private void openFirmware(File selectedFile) {
+        firmwareFile = selectedFile;
+        updateTitle();
+        firm = null;
+        appWindow.setMainCard();
+        mainPanel.enableControls(false);
+        mainPanel.updatePatchTable(Collections.emptyList());
+        mainPanel.showProgress(ZoomFirmwareEditor.getMessage("openFirmwareProgress"));
+        OpenFirmwareTask task = new OpenFirmwareTask(selectedFile, mainPanel.getPatchTableModel());
+        currentTask = task;
+        task.execute();
+    }
+
+    /**
+     * Shows patches with broken block chains and offers to recover them.
+     */
+    private void offerRecovery() {
+        StringBuilder message = new StringBuilder(ZoomFirmwareEditor.getMessage("integrityErrorsWarning"));
+        for (IntegrityError error : firm.getIntegrityErrors()) {
+            message.append("\n").append(error);
+        }
+        RecoveryReport report = RecoveryService.getInstance().scan(firm);
+        if (report.isEmpty()) {
+            JOptionPane.showMessageDialog(appWindow, message.toString(),
+                    ZoomFirmwareEditor.getMessage("warningTitle"), JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        message.append("\n\n").append(ZoomFirmwareEditor.getMessage("recoveryQuestionBeginning"))
+                .append(" ").append(report.getRecoverableChains().size())
+                .append(", ").append(ZoomFirmwareEditor.getMessage("recoveryQuestionEnding"))
+                .append(" ").append(report.getBlocksToQuarantine().cardinality());
+        if (JOptionPane.showConfirmDialog(appWindow, message.toString(), ZoomFirmwareEditor.getMessage("recoveryTitle"),
+                JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION) {
+            RecoveryService.getInstance().recover(firm, report);
         }
-        updateGuiElements();
     }
 
     /**
@@ -96,26 +146,81 @@ public class ApplicationController {
                 .startsWith(MODIFIED_FILE_PREFIX) ? firmwareFile.getName() : MODIFIED_FILE_PREFIX + firmwareFile.getName();
         fc.setSelectedFile(new File(name));
         int returnVal = fc.showSaveDialog(appWindow);
-        if (returnVal == JFileChooser.APPROVE_OPTION) {
-            boolean isSuccessfulSaving = firmwareService.saveModifiedFirmwareFile(firm,
-                    Paths.get(fc.getSelectedFile().getAbsolutePath()));
-            if (isSuccessfulSaving) {
-                firmwareFile = fc.getSelectedFile();
-                updateTitle();
-            } else {
-                JOptionPane.showMessageDialog(appWindow, ZoomFirmwareEditor.getMessage("firmwareSaveError"),
-                        ZoomFirmwareEditor.getMessage("errorTitle"), JOptionPane.ERROR_MESSAGE);
-            }
-            updateGuiElements();
+        if (returnVal == JFileChooser.APPROVE_OPTION && confirmDefragmentation()) {
+            File selectedFile = fc.getSelectedFile();
+            runInBackground(ZoomFirmwareEditor.getMessage("saveFirmwareProgress"),
+                    () -> firmwareService.saveModifiedFirmwareFile(firm, Paths.get(selectedFile.getAbsolutePath())),
+                    isSuccessfulSaving -> {
+                        if (isSuccessfulSaving) {
+                            firmwareFile = selectedFile;
+                            updateTitle();
+                        } else {
+                            JOptionPane.showMessageDialog(appWindow, ZoomFirmwareEditor.getMessage("firmwareSaveError"),
+                                    ZoomFirmwareEditor.getMessage("errorTitle"), JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Shows the defragmentation plan, if firmware is defragmented before saving, and asks to continue.
+     *
+     * @return true, if saving should continue
+     */
+    private boolean confirmDefragmentation() {
+        if (!firmwareService.isDefragmentationEnabled()) {
+            return true;
         }
+        StringBuilder message = new StringBuilder(ZoomFirmwareEditor.getMessage("defragmentationWarning"));
+        if (firmwareService.hasCrossLinkedChains(firm)) {
+            message.append("\n").append(ZoomFirmwareEditor.getMessage("defragmentationRewriteAll"));
+        } else {
+            DefragmentationPlan plan = firmwareService.planDefragmentation(firm);
+            message.append("\n").append(ZoomFirmwareEditor.getMessage("defragmentationBlocksToMove"))
+                    .append(" ").append(plan.getMovesCount())
+                    .append("\n").append(ZoomFirmwareEditor.getMessage("defragmentationHeadersToRewrite"))
+                    .append(" ").append(plan.getHeadersToRewrite())
+                    .append("\n").append(ZoomFirmwareEditor.getMessage("defragmentationBlocksToClear"))
+                    .append(" ").append(plan.getBlocksToClear())
+                    .append("\n").append(ZoomFirmwareEditor.getMessage("defragmentationBytesToWrite"))
+                    .append(" ").append(plan.getBytesToWrite());
+        }
+        message.append("\n\n").append(ZoomFirmwareEditor.getMessage("defragmentationQuestion"));
+        return JOptionPane.showConfirmDialog(appWindow, message.toString(),
+                ZoomFirmwareEditor.getMessage("defragmentationTitle"),
+                JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE) == JOptionPane.YES_OPTION;
     }
 
     /**
-     * Shows the file saving dialog and performs the save action for each selected patch.
+     * Shows the file saving dialog and performs the save action for selected patch.
+     * If several patches are selected, then target directory is asked once and all patches are saved into it.
      */
     public void showSavePatchDialog() {
         JTable table = mainPanel.getTable();
-        if (table.getSelectedRowCount() > 0) {
+        if (table.getSelectedRowCount() > 1) {
+            fc.setDialogTitle(ZoomFirmwareEditor.getMessage("savePatchesTitle"));
+            fc.resetChoosableFileFilters();
+            fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            fc.setSelectedFile(new File("")); // clears selection
+            int returnVal = fc.showSaveDialog(appWindow);
+            fc.setFileSelectionMode(JFileChooser.FILES_ONLY);
+            if (returnVal == JFileChooser.APPROVE_OPTION) {
+                List<String> fileNames = new ArrayList<>();
+                for (int i : table.getSelectedRows()) {
+                    fileNames.add((String) table.getValueAt(i, 0));
+                }
+                File directory = fc.getSelectedFile();
+                runInBackground(ZoomFirmwareEditor.getMessage("extractPatchesProgress"),
+                        () -> patchService.savePatchFiles(firm, fileNames, Paths.get(directory.getAbsolutePath())),
+                        report -> {
+                            if (!report.isSuccess()) {
+                                JOptionPane.showMessageDialog(appWindow, ZoomFirmwareEditor.getMessage("patchSaveError")
+                                                + "\n" + String.join(", ", report.getFailedFileNames()),
+                                        ZoomFirmwareEditor.getMessage("errorTitle"), JOptionPane.ERROR_MESSAGE);
+                            }
+                        });
+            }
+        } else if (table.getSelectedRowCount() == 1) {
             fc.setDialogTitle(ZoomFirmwareEditor.getMessage("savePatchTitle"));
             fc.resetChoosableFileFilters();
 
@@ -124,12 +229,15 @@ public class ApplicationController {
                 fc.setSelectedFile(new File(fileName));
                 int returnVal = fc.showSaveDialog(appWindow);
                 if (returnVal == JFileChooser.APPROVE_OPTION) {
-                    boolean isSuccessfulSaving = patchService.savePatchFile(
-                            firm, fileName, Paths.get(fc.getSelectedFile().getAbsolutePath()));
-                    if (!isSuccessfulSaving) {
-                        JOptionPane.showMessageDialog(appWindow, ZoomFirmwareEditor.getMessage("patchSaveError"),
-                                ZoomFirmwareEditor.getMessage("errorTitle"), JOptionPane.ERROR_MESSAGE);
-                    }
+                    File selectedFile = fc.getSelectedFile();
+                    runInBackground(ZoomFirmwareEditor.getMessage("extractPatchesProgress"),
+                            () -> patchService.savePatchFile(firm, fileName, Paths.get(selectedFile.getAbsolutePath())),
+                            isSuccessfulSaving -> {
+                                if (!isSuccessfulSaving) {
+                                    JOptionPane.showMessageDialog(appWindow, ZoomFirmwareEditor.getMessage("patchSaveError"),
+                                            ZoomFirmwareEditor.getMessage("errorTitle"), JOptionPane.ERROR_MESSAGE);
+                                }
+                            });
                 }
             }
         } else {
@@ -139,7 +247,7 @@ public class ApplicationController {
     }
 
     /**
-     * Shows the patch selection dialog and then calls the injectPatch() method.
+     * Shows the patch selection dialog (several files can be selected) and then calls the injectPatches() method.
      */
     public void showOpenPatchDialog() {
         fc.setDialogTitle(ZoomFirmwareEditor.getMessage("openPatchTitle"));
@@ -147,11 +255,14 @@ public class ApplicationController {
         fc.setFileFilter(new FileNameExtensionFilter(ZoomFirmwareEditor.getMessage("zdlAndRawFileFilter"),
                 "zdl", "zd2", "raw"));
         fc.setSelectedFile(new File("")); // clears selection
+        fc.setSelectedFiles(null);
+        fc.setMultiSelectionEnabled(true);
         int returnVal = fc.showOpenDialog(appWindow);
+        fc.setMultiSelectionEnabled(false);
         if (returnVal == JFileChooser.APPROVE_OPTION) {
-            File patchFile = fc.getSelectedFile();
-            if (patchFile != null) {
-                injectPatch(patchFile);
+            File[] patchFiles = fc.getSelectedFiles();
+            if (patchFiles.length > 0) {
+                injectPatches(Arrays.asList(patchFiles));
             } else {
                 JOptionPane.showMessageDialog(appWindow, ZoomFirmwareEditor.getMessage("patchIsNotSelected"),
                         ZoomFirmwareEditor.getMessage("errorTitle"), JOptionPane.ERROR_MESSAGE);
@@ -160,24 +271,18 @@ public class ApplicationController {
     }
 
     /**
-     * Injects a patch into the current firmware.
+     * Injects patches into the current firmware in the background.
      *
-     * @param patchFile patch file
+     * @param patchFiles patch files
      */
-    private void injectPatch(File patchFile) {
+    private void injectPatches(List<File> patchFiles) {
         if (firm != null && firm.getPatches() != null) {
-            try {
-                Patch patch = patchService.makePatchFromFile(patchFile);
-                firmwareService.injectPatch(firm, patch, true);
-            } catch (Exception e) {
-                log.log(Level.SEVERE, e.getMessage(), e);
-                JOptionPane.showMessageDialog(appWindow, e.getMessage(),
-                        ZoomFirmwareEditor.getMessage("errorTitle"), JOptionPane.ERROR_MESSAGE);
-                return;
-            }
+            runInBackground(ZoomFirmwareEditor.getMessage("injectPatchesProgress"), () -> {
+                List<Patch> patches = patchService.makePatchesFromFiles(patchFiles);
+                firmwareService.injectPatches(firm, patches);
+                return patches;
+            }, patches -> mainPanel.setScrollBarMaximum());
         }
-        updateGuiElements();
-        mainPanel.setScrollBarMaximum();
     }
 
     /**
@@ -191,7 +296,7 @@ public class ApplicationController {
             int selectedRow = mainPanel.getTable().getSelectedRow();
             String fileName = (String) mainPanel.getTable().getValueAt(selectedRow, 0);
             firmwareService.movePatchUpOrDown(firm, fileName, isUp);
-            updateGuiElements();
+            updateGuiElements(false);
             if (isUp && selectedRow > 0) {
                 mainPanel.getTable().setRowSelectionInterval(selectedRow - 1, selectedRow - 1);
             } else if (!isUp && selectedRow < firm.getPatches().size() - 1) {
@@ -218,13 +323,54 @@ public class ApplicationController {
                 filesToRemove.add(fileName);
             }
             firmwareService.removePatchFile(firm, filesToRemove);
-            updateGuiElements();
+            updateGuiElements(false);
         } else {
             JOptionPane.showMessageDialog(appWindow, ZoomFirmwareEditor.getMessage("patchesAreNotSelected"),
                     ZoomFirmwareEditor.getMessage("warningTitle"), JOptionPane.INFORMATION_MESSAGE);
         }
     }
 
+    /**
+     * Runs the task in the background: GUI controls are disabled and the blocks bar shows the progress
+     * until the task is done. Task's exception is shown in the error dialog.
+     * Patch table is updated by the patch registry events, so it is not rebuilt after the task.
+     *
+     * @param progressText task description
+     * @param task         task, that works with the current firmware
+     * @param onSuccess    called in the Event Dispatch Thread after GUI elements are updated
+     * @param <T>          task result type
+     */
+    private <T> void runInBackground(String progressText, Callable<T> task, Consumer<T> onSuccess) {
+        mainPanel.enableControls(false);
+        mainPanel.showProgress(progressText);
+        SwingWorker<T, Void> worker = new SwingWorker<T, Void>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                return task.call();
+            }
+
+            @Override
+            protected void done() {
+                currentTask = null;
+                T result;
+                try {
+                    result = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    log.log(Level.SEVERE, cause.getMessage(), cause);
+                    updateGuiElements(false);
+                    JOptionPane.showMessageDialog(appWindow, cause.getMessage(),
+                            ZoomFirmwareEditor.getMessage("errorTitle"), JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                updateGuiElements(false);
+                onSuccess.accept(result);
+            }
+        };
+        currentTask = worker;
+        worker.execute();
+    }
+
     /**
      * Updates current firmware name in the application window title.
      */
@@ -239,13 +385,26 @@ public class ApplicationController {
      * - updates used blocks bar.
      */
     private void updateGuiElements() {
+        updateGuiElements(true);
+    }
+
+    /**
+     * Updates main GUI elements.
+     *
+     * @param isPatchTableUpdated if false, then patches table is not rebuilt (only buttons and used blocks bar):
+     *                            table model gets the changes from the patch registry
+     */
+    private void updateGuiElements(boolean isPatchTableUpdated) {
         if (firm != null) {
-            ArrayList<Patch> patches = firm.getPatches();
+            PatchRegistry patches = firm.getPatches();
             if (patches != null) {
                 mainPanel.enableControls(true);
                 mainPanel.updateBlocksBar(firmwareService.getUsedBlocksCount(firm),
                         firmwareService.getTotalBlocksCount(firm));
-                mainPanel.updatePatchTable(patches);
+                if (isPatchTableUpdated) {
+                    mainPanel.updatePatchTable(patches.asList());
+                    patches.setListener(mainPanel.getPatchTableModel());
+                }
                 return;
             }
         }
@@ -254,4 +413,95 @@ public class ApplicationController {
         mainPanel.updatePatchTable(null);
     }
 
+    /**
+     * Loads the firmware in the background. File table items are published as soon as the file table is decoded,
+     * then every walked patch is published again (its name is known), so the table is filled progressively.
+     */
+    private class OpenFirmwareTask extends SwingWorker<Firmware, Patch> implements FirmwareService.LoadListener {
+        private final File selectedFile;
+        private final PatchTableModel tableModel;
+        private final ProgressMonitor monitor;
+        private final Set<Patch> shownPatches = Collections.newSetFromMap(new IdentityHashMap<>()); // EDT only
+        private final AtomicInteger walkedCount = new AtomicInteger();
+        private volatile int itemsCount;
+
+        private OpenFirmwareTask(File selectedFile, PatchTableModel tableModel) {
+            this.selectedFile = selectedFile;
+            this.tableModel = tableModel;
+            monitor = new ProgressMonitor(appWindow, ZoomFirmwareEditor.getMessage("openFirmwareProgress"),
+                    selectedFile.getName(), 0, 100);
+            addPropertyChangeListener(event -> {
+                if ("progress".equals(event.getPropertyName())) {
+                    monitor.setProgress((Integer) event.getNewValue());
+                    cancelIfRequested();
+                }
+            });
+        }
+
+        @Override
+        protected Firmware doInBackground() {
+            return firmwareService.initFirmware(selectedFile, this);
+        }
+
+        @Override
+        public void fileTableDecoded(List<Patch> items) {
+            itemsCount = items.size();
+            publish(items.toArray(new Patch[0]));
+        }
+
+        @Override
+        public void chainWalked(Patch patch) {
+            publish(patch);
+            setProgress(Math.min(100, 100 * walkedCount.incrementAndGet() / Math.max(1, itemsCount)));
+        }
+
+        @Override
+        protected void process(List<Patch> chunks) {
+            if (isDone()) {
+                return; // chunks can be delivered after the task is finished or cancelled
+            }
+            List<Patch> addedPatches = new ArrayList<>();
+            for (Patch patch : chunks) {
+                if (shownPatches.add(patch)) {
+                    addedPatches.add(patch);
+                } else {
+                    tableModel.updatePatch(patch);
+                }
+            }
+            tableModel.addPatches(addedPatches);
+            cancelIfRequested();
+        }
+
+        private void cancelIfRequested() {
+            if (monitor.isCanceled() && !isDone()) {
+                cancel(true);
+            }
+        }
+
+        @Override
+        protected void done() {
+            monitor.close();
+            currentTask = null;
+            try {
+                firm = get();
+                if (!firm.getIntegrityErrors().isEmpty()) {
+                    updateGuiElements();
+                    offerRecovery();
+                }
+            } catch (CancellationException e) {
+                log.info("Firmware opening is cancelled: " + selectedFile);
+                firm = null;
+            } catch (InterruptedException | ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                log.log(Level.SEVERE, cause.getMessage(), cause);
+                firm = null;
+                JOptionPane.showMessageDialog(null,
+                        ZoomFirmwareEditor.getMessage("invalidFirmwareError"),
+                        ZoomFirmwareEditor.getMessage("errorTitle"),
+                        JOptionPane.ERROR_MESSAGE);
+            }
+            updateGuiElements();
+        }
+    }
+
 }
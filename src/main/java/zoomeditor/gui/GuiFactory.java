@@ -9,6 +9,7 @@ import java.util.logging.Logger;
 
 class GuiFactory {
     private final static String ICONS_PATH = "main/resources/icons/";
+    private final static Color ODD_ROW_COLOR = new Color(237, 243, 254);
     private static final Logger log = Logger.getLogger(GuiFactory.class.getName());
 
     static JButton getButton(String text, String iconName, String tooltip) {
@@ -36,8 +37,7 @@ class GuiFactory {
             public Component prepareRenderer(TableCellRenderer renderer, int row, int column) {
                 Component component = super.prepareRenderer(renderer, row, column);
                 if (!component.getBackground().equals(getSelectionBackground())) {
-                    Color color = new Color(237, 243, 254);
-                    component.setBackground(row % 2 == 0 ? Color.WHITE : color);
+                    component.setBackground(row % 2 == 0 ? Color.WHITE : ODD_ROW_COLOR);
                 }
                 return component;
             }
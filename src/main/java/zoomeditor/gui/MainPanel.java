@@ -8,7 +8,7 @@ import main.java.zoomeditor.model.Patch;
 import javax.swing.*;
 import javax.swing.GroupLayout.Alignment;
 import javax.swing.LayoutStyle.ComponentPlacement;
-import java.util.ArrayList;
+import java.util.List;
 
 public class MainPanel extends JPanel {
 
@@ -133,13 +133,25 @@ public class MainPanel extends JPanel {
     }
 
     public void updateBlocksBar(int used, int total) {
+        blocksBar.setIndeterminate(false);
         blocksBar.setStringPainted(true);
         blocksBar.setMaximum(total);
         blocksBar.setValue(used);
         blocksBar.setString("Used: " + used + "/" + total + " blocks");
     }
 
-    public void updatePatchTable(ArrayList<Patch> patches) {
+    /**
+     * Shows that a background task is running: blocks bar is switched into the indeterminate mode.
+     *
+     * @param text task description
+     */
+    public void showProgress(String text) {
+        blocksBar.setStringPainted(true);
+        blocksBar.setIndeterminate(true);
+        blocksBar.setString(text);
+    }
+
+    public void updatePatchTable(List<Patch> patches) {
         if (patches == null) {
             scrollPane.setViewportView(new JTable());
             return;
@@ -152,6 +164,10 @@ public class MainPanel extends JPanel {
         return table;
     }
 
+    public PatchTableModel getPatchTableModel() {
+        return (PatchTableModel) table.getModel();
+    }
+
     public int getScrollBarValue() {
         return scrollPane.getVerticalScrollBar().getValue();
     }
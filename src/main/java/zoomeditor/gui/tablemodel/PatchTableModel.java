@@ -2,18 +2,85 @@ package main.java.zoomeditor.gui.tablemodel;
 
 import main.java.ZoomFirmwareEditor;
 import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.model.PatchRegistry;
 import main.java.zoomeditor.service.PatchService;
 
-import javax.swing.event.TableModelListener;
-import javax.swing.table.TableModel;
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-public class PatchTableModel implements TableModel {
+/**
+ * Patch list of the table. Model keeps its own copy of the list, so firmware can be modified by a background task
+ * while the table is painted. Changes of the patch registry are applied as row deltas: only inserted, removed
+ * or swapped rows are repainted, the table keeps its selection and scroll position.
+ * Registry changes, that are made outside of the Event Dispatch Thread, are applied later in the same order.
+ */
+public class PatchTableModel extends AbstractTableModel implements PatchRegistry.Listener {
 
     private final List<Patch> patches;
 
     public PatchTableModel(List<Patch> patches) {
-        this.patches = patches;
+        this.patches = new ArrayList<>(patches);
+    }
+
+    /**
+     * Appends patches to the end of the table.
+     *
+     * @param addedPatches patches
+     */
+    public void addPatches(List<Patch> addedPatches) {
+        if (!addedPatches.isEmpty()) {
+            int firstRow = patches.size();
+            patches.addAll(addedPatches);
+            fireTableRowsInserted(firstRow, patches.size() - 1);
+        }
+    }
+
+    @Override
+    public void patchesInserted(int firstIndex, List<Patch> inserted) {
+        List<Patch> insertedCopy = new ArrayList<>(inserted);
+        runOnEventDispatchThread(() -> {
+            patches.addAll(firstIndex, insertedCopy);
+            fireTableRowsInserted(firstIndex, firstIndex + insertedCopy.size() - 1);
+        });
+    }
+
+    @Override
+    public void patchesRemoved(int firstIndex, int lastIndex) {
+        runOnEventDispatchThread(() -> {
+            patches.subList(firstIndex, lastIndex + 1).clear();
+            fireTableRowsDeleted(firstIndex, lastIndex);
+        });
+    }
+
+    @Override
+    public void patchesSwapped(int i, int j) {
+        runOnEventDispatchThread(() -> {
+            Collections.swap(patches, i, j);
+            fireTableRowsUpdated(Math.min(i, j), Math.max(i, j));
+        });
+    }
+
+    private static void runOnEventDispatchThread(Runnable change) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            change.run();
+        } else {
+            SwingUtilities.invokeLater(change);
+        }
+    }
+
+    /**
+     * Repaints the row of the patch (for example, when patch name becomes known).
+     *
+     * @param patch patch
+     */
+    public void updatePatch(Patch patch) {
+        int row = patches.indexOf(patch);
+        if (row != -1) {
+            fireTableRowsUpdated(row, row);
+        }
     }
 
     @Override
@@ -71,16 +138,4 @@ public class PatchTableModel implements TableModel {
         return "";
     }
 
-    @Override
-    public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
-    }
-
-    @Override
-    public void addTableModelListener(TableModelListener l) {
-    }
-
-    @Override
-    public void removeTableModelListener(TableModelListener l) {
-    }
-
 }
\ No newline at end of file
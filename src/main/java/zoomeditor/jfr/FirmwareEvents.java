@@ -0,0 +1,213 @@
+package main.java.zoomeditor.jfr;
+
+import main.java.zoomeditor.model.DefragmentationPlan;
+import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.IntegrityError;
+import main.java.zoomeditor.model.Patch;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Timed events of firmware operations. Every event is timed from its creation till its report:
+ * <pre>
+ * FirmwareEvents.Inject event = FlightRecorderSupport.events().inject();
+ * ...
+ * event.report(patches);
+ * </pre>
+ * Flight Recorder implementation is compiled separately ("src/jfr"), because jdk.jfr is not a part of Java 8 API;
+ * {@link #NONE} is used, if it is not available.
+ */
+public interface FirmwareEvents {
+    /**
+     * Events, that are never recorded (no objects are created).
+     */
+    FirmwareEvents NONE = new FirmwareEvents() {
+        @Override
+        public BinLocate binLocate() {
+            return (firm, fromCache) -> {
+            };
+        }
+
+        @Override
+        public FileTableDecode fileTableDecode() {
+            return (firm, patchesCount) -> {
+            };
+        }
+
+        @Override
+        public ChainWalk chainWalk() {
+            return (patch, error) -> {
+            };
+        }
+
+        @Override
+        public BlockAllocation blockAllocation() {
+            return (patch, blocks) -> {
+            };
+        }
+
+        @Override
+        public Inject inject() {
+            return patches -> {
+            };
+        }
+
+        @Override
+        public Remove remove() {
+            return patches -> {
+            };
+        }
+
+        @Override
+        public Defragment defragment() {
+            return (plan, allPatchesRewritten) -> {
+            };
+        }
+
+        @Override
+        public FileTableRebuild fileTableRebuild() {
+            return (patchesCount, tablesCount) -> {
+            };
+        }
+
+        @Override
+        public Save save() {
+            return (firm, filePath, saveMode, success) -> {
+            };
+        }
+
+        @Override
+        public void startContinuousRecording(Path destination, long maxAgeMinutes) {
+            throw new UnsupportedOperationException("Flight Recorder is not available");
+        }
+    };
+
+    BinLocate binLocate();
+
+    FileTableDecode fileTableDecode();
+
+    ChainWalk chainWalk();
+
+    BlockAllocation blockAllocation();
+
+    Inject inject();
+
+    Remove remove();
+
+    Defragment defragment();
+
+    FileTableRebuild fileTableRebuild();
+
+    Save save();
+
+    /**
+     * Starts the recording of these events with the bundled settings ({@link FlightRecorderSupport#SETTINGS_FILE}).
+     * Only recent events are kept, the recording is dumped into the file on exit.
+     *
+     * @param destination   recording file
+     * @param maxAgeMinutes how long events are kept
+     * @throws Exception if the recording cannot be started
+     */
+    void startContinuousRecording(Path destination, long maxAgeMinutes) throws Exception;
+
+    /**
+     * Firmware file is mapped, BIN is located and its blocks count is read.
+     */
+    interface BinLocate {
+        /**
+         * @param firm      firmware with BIN image
+         * @param fromCache true, if BIN position is taken from the parse cache
+         */
+        void report(Firmware firm, boolean fromCache);
+    }
+
+    /**
+     * File table items are decoded.
+     */
+    interface FileTableDecode {
+        /**
+         * @param firm         firmware with file table
+         * @param patchesCount number of decoded items
+         */
+        void report(Firmware firm, int patchesCount);
+    }
+
+    /**
+     * Block chain of one patch is walked and the patch name is extracted.
+     */
+    interface ChainWalk {
+        /**
+         * @param patch patch
+         * @param error integrity error or null, if chain is valid
+         */
+        void report(Patch patch, IntegrityError error);
+    }
+
+    /**
+     * Blocks are reserved for one patch.
+     */
+    interface BlockAllocation {
+        /**
+         * @param patch  patch
+         * @param blocks reserved block addresses
+         */
+        void report(Patch patch, int[] blocks);
+    }
+
+    /**
+     * Patches are injected.
+     */
+    interface Inject {
+        /**
+         * @param patches injected patches
+         */
+        void report(List<Patch> patches);
+    }
+
+    /**
+     * Patches are removed.
+     */
+    interface Remove {
+        /**
+         * @param patches removed patches
+         */
+        void report(List<Patch> patches);
+    }
+
+    /**
+     * Firmware is defragmented.
+     */
+    interface Defragment {
+        /**
+         * @param plan                executed plan
+         * @param allPatchesRewritten true, if all patches were rewritten instead of moving blocks
+         */
+        void report(DefragmentationPlan plan, boolean allPatchesRewritten);
+    }
+
+    /**
+     * File tables are rebuilt.
+     */
+    interface FileTableRebuild {
+        /**
+         * @param patchesCount number of written items
+         * @param tablesCount  number of updated file tables
+         */
+        void report(int patchesCount, int tablesCount);
+    }
+
+    /**
+     * Firmware file is saved.
+     */
+    interface Save {
+        /**
+         * @param firm     saved firmware
+         * @param filePath saved file
+         * @param saveMode save mode setting
+         * @param success  true, if file is saved
+         */
+        void report(Firmware firm, Path filePath, String saveMode, boolean success);
+    }
+
+}
@@ -0,0 +1,67 @@
+package main.java.zoomeditor.jfr;
+
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to Flight Recorder events. Event classes extend {@code jdk.jfr.Event}, which is not a part of Java 8 API
+ * (and is missing in Java 8 runtimes before 8u262), so they are compiled separately ("src/jfr") and loaded by name.
+ * If they cannot be loaded, {@link FirmwareEvents#NONE} is used:
+ * <pre>
+ * FirmwareEvents.Inject event = FlightRecorderSupport.events().inject();
+ * ...
+ * event.report(patches);
+ * </pre>
+ * When no recording is running, events are not committed and their data is not collected.
+ */
+public final class FlightRecorderSupport {
+    public static final String CATEGORY = "Zoom Firmware Editor";
+    public static final String SETTINGS_FILE = "main/resources/jfr/zoom-firmware-editor.jfc";
+    private static final String EVENTS_CLASS = "jfr.java.zoomeditor.jfr.FlightRecorderEvents";
+    private static final Logger log = Logger.getLogger(FlightRecorderSupport.class.getName());
+    private static final FirmwareEvents EVENTS = loadEvents();
+
+    private FlightRecorderSupport() {
+    }
+
+    /**
+     * Returns the firmware events.
+     *
+     * @return Flight Recorder events or {@link FirmwareEvents#NONE}, if Flight Recorder is not available
+     */
+    public static FirmwareEvents events() {
+        return EVENTS;
+    }
+
+    /**
+     * Starts the continuous recording of application events with the bundled settings.
+     * Only recent events are kept, the recording is dumped into the file on exit.
+     *
+     * @param destination   recording file
+     * @param maxAgeMinutes how long events are kept
+     */
+    public static void startContinuousRecording(Path destination, long maxAgeMinutes) {
+        if (EVENTS == FirmwareEvents.NONE) {
+            log.warning("Flight Recorder is not available in this Java runtime, recording is not started");
+            return;
+        }
+        try {
+            EVENTS.startContinuousRecording(destination, maxAgeMinutes);
+            log.info("Flight recording is started, it will be saved on exit into " + destination);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Flight recording start error: " + e.getMessage(), e);
+        }
+    }
+
+    private static FirmwareEvents loadEvents() {
+        ClassLoader classLoader = FlightRecorderSupport.class.getClassLoader();
+        try {
+            Class.forName("jdk.jfr.Event", false, classLoader);
+            return (FirmwareEvents) Class.forName(EVENTS_CLASS, true, classLoader).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return FirmwareEvents.NONE;
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package main.java.zoomeditor.model;
+
+/**
+ * Strategy of choosing a contiguous run of free blocks for a patch.
+ * If no free run is long enough, then the allocator falls back to several runs.
+ */
+public enum AllocationPolicy {
+    /**
+     * The first free run, that is long enough.
+     */
+    FIRST_FIT("first-fit") {
+        @Override
+        int findRun(BlockAllocator allocator, int count) {
+            for (int start = allocator.nextFreeRun(0); start != -1; ) {
+                int end = allocator.freeRunEnd(start);
+                if (end - start >= count) {
+                    return start;
+                }
+                start = allocator.nextFreeRun(end);
+            }
+            return -1;
+        }
+    },
+
+    /**
+     * The shortest free run, that is long enough: long runs are kept for big patches.
+     */
+    BEST_FIT("best-fit") {
+        @Override
+        int findRun(BlockAllocator allocator, int count) {
+            int bestStart = -1;
+            int bestLength = Integer.MAX_VALUE;
+            for (int start = allocator.nextFreeRun(0); start != -1; ) {
+                int end = allocator.freeRunEnd(start);
+                int length = end - start;
+                if (length >= count && length < bestLength) {
+                    bestStart = start;
+                    bestLength = length;
+                    if (length == count) {
+                        break; // exact fit
+                    }
+                }
+                start = allocator.nextFreeRun(end);
+            }
+            return bestStart;
+        }
+    },
+
+    /**
+     * The first free run, that is long enough, searching from the end of the previous allocation.
+     */
+    NEXT_FIT("next-fit") {
+        @Override
+        int findRun(BlockAllocator allocator, int count) {
+            int rover = allocator.getRover();
+            // the free run may start before the rover, if rover points into its middle
+            for (int start = allocator.nextFreeRun(rover); start != -1; ) {
+                int end = allocator.freeRunEnd(start);
+                if (end - start >= count) {
+                    return start;
+                }
+                start = allocator.nextFreeRun(end);
+            }
+            int start = FIRST_FIT.findRun(allocator, count);
+            return start != -1 && start < rover ? start : -1;
+        }
+    };
+
+    private final String name;
+
+    AllocationPolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Finds the start of a free run of given length.
+     *
+     * @param allocator block allocator
+     * @param count     blocks count
+     * @return address of the first block of the run or -1 if there is no long enough run
+     */
+    abstract int findRun(BlockAllocator allocator, int count);
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Finds policy by its name (as used in the application config).
+     *
+     * @param name policy name, for example "best-fit"
+     * @return policy or FIRST_FIT, if name is unknown
+     */
+    public static AllocationPolicy fromName(String name) {
+        for (AllocationPolicy policy : values()) {
+            if (policy.name.equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        return FIRST_FIT;
+    }
+
+}
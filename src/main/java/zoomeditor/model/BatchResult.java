@@ -0,0 +1,60 @@
+package main.java.zoomeditor.model;
+
+import java.io.File;
+
+/**
+ * Result of one firmware processing in batch mode.
+ */
+public class BatchResult {
+    private final File firmwareFile;
+    private File outputFile;
+    private boolean success;
+    private String message;
+    private long elapsedMillis;
+
+    public BatchResult(File firmwareFile) {
+        this.firmwareFile = firmwareFile;
+    }
+
+    public File getFirmwareFile() {
+        return firmwareFile;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public void setOutputFile(File outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return firmwareFile.getName() + (success ? " OK" : " FAILED: " + message) + " (" + elapsedMillis + " ms)";
+    }
+
+}
@@ -0,0 +1,230 @@
+package main.java.zoomeditor.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Allocation bitmap of the firmware's data blocks.
+ * Block 0 is always reserved (it is a part of the last file table).
+ * Used and free blocks are counted on the fly, so usage checks do not scan the bitmap.
+ * Patch blocks are placed as one contiguous run, if allocation policy finds a long enough free run.
+ */
+public class BlockAllocator {
+    public static final int RESERVED_BLOCK = 0;
+
+    private final BitSet usedBlocks;
+    private final int blocksCount;
+    private final AllocationPolicy policy;
+    private int usedCount; // without reserved block
+    private int nextFree; // there are no free blocks before this address
+    private int rover; // address after the last allocated run
+
+    /**
+     * Creates an allocator, where all blocks (except reserved) are free.
+     *
+     * @param blocksCount data blocks count (including reserved block)
+     */
+    public BlockAllocator(int blocksCount) {
+        this(blocksCount, AllocationPolicy.FIRST_FIT);
+    }
+
+    /**
+     * Creates an allocator, where all blocks (except reserved) are free.
+     *
+     * @param blocksCount data blocks count (including reserved block)
+     * @param policy      allocation policy
+     */
+    public BlockAllocator(int blocksCount, AllocationPolicy policy) {
+        this.blocksCount = blocksCount;
+        this.policy = policy;
+        usedBlocks = new BitSet(blocksCount);
+        usedBlocks.set(RESERVED_BLOCK);
+        usedCount = 0;
+        nextFree = RESERVED_BLOCK + 1;
+        rover = RESERVED_BLOCK + 1;
+    }
+
+    /**
+     * Allocates blocks for one patch. If policy does not find a long enough free run,
+     * then the longest free runs are used. Returned addresses are sorted.
+     *
+     * @param count blocks count
+     * @return block addresses or null if there are not enough free blocks
+     */
+    public int[] allocate(int count) {
+        if (!canAllocate(count)) {
+            return null;
+        }
+        int[] addresses = new int[count];
+        if (count == 0) {
+            return addresses;
+        }
+
+        int start = policy.findRun(this, count);
+        if (start != -1) {
+            for (int i = 0; i < count; i++) {
+                addresses[i] = start + i;
+            }
+        } else {
+            // fragmented: take the longest runs, so the patch is split into as few parts as possible
+            List<int[]> runs = new ArrayList<>();
+            for (int runStart = nextFreeRun(0); runStart != -1; runStart = nextFreeRun(freeRunEnd(runStart))) {
+                runs.add(new int[]{runStart, freeRunEnd(runStart)});
+            }
+            runs.sort((a, b) -> (b[1] - b[0]) - (a[1] - a[0]));
+            int i = 0;
+            for (int[] run : runs) {
+                for (int address = run[0]; address < run[1] && i < count; address++) {
+                    addresses[i++] = address;
+                }
+            }
+            Arrays.sort(addresses);
+        }
+
+        for (int address : addresses) {
+            markUsed(address);
+        }
+        rover = addresses[count - 1] + 1;
+        return addresses;
+    }
+
+    /**
+     * Marks the block as used. Marking already used block has no effect.
+     *
+     * @param address block address
+     */
+    public void markUsed(int address) {
+        checkAddress(address);
+        if (!usedBlocks.get(address)) {
+            usedBlocks.set(address);
+            usedCount++;
+            if (address == nextFree) {
+                nextFree = usedBlocks.nextClearBit(address);
+            }
+        }
+    }
+
+    /**
+     * Frees the block. Freeing already free block has no effect.
+     *
+     * @param address block address
+     */
+    public void free(int address) {
+        checkAddress(address);
+        if (usedBlocks.get(address)) {
+            usedBlocks.clear(address);
+            usedCount--;
+            if (address < nextFree) {
+                nextFree = address;
+            }
+        }
+    }
+
+    /**
+     * Frees all blocks (except reserved).
+     */
+    public void freeAll() {
+        usedBlocks.clear(RESERVED_BLOCK + 1, blocksCount);
+        usedCount = 0;
+        nextFree = RESERVED_BLOCK + 1;
+        rover = RESERVED_BLOCK + 1;
+    }
+
+    public boolean isUsed(int address) {
+        return usedBlocks.get(address);
+    }
+
+    /**
+     * Checks, if given number of blocks can be allocated.
+     *
+     * @param count blocks count
+     * @return true, if there are enough free blocks
+     */
+    public boolean canAllocate(int count) {
+        return count <= getFreeCount();
+    }
+
+    /**
+     * Returns the number of blocks, that can be used for patches (without reserved block).
+     *
+     * @return capacity
+     */
+    public int getCapacity() {
+        return blocksCount - 1;
+    }
+
+    public int getUsedCount() {
+        return usedCount;
+    }
+
+    public int getFreeCount() {
+        return getCapacity() - usedCount;
+    }
+
+    /**
+     * Returns the length of the longest run of free blocks.
+     *
+     * @return blocks count
+     */
+    public int getLargestFreeRun() {
+        int largest = 0;
+        for (int start = nextFreeRun(0); start != -1; ) {
+            int end = freeRunEnd(start);
+            largest = Math.max(largest, end - start);
+            start = nextFreeRun(end);
+        }
+        return largest;
+    }
+
+    /**
+     * Returns the number of free block runs.
+     *
+     * @return runs count
+     */
+    public int getFreeRunsCount() {
+        int count = 0;
+        for (int start = nextFreeRun(0); start != -1; start = nextFreeRun(freeRunEnd(start))) {
+            count++;
+        }
+        return count;
+    }
+
+    public AllocationPolicy getPolicy() {
+        return policy;
+    }
+
+    int getRover() {
+        return rover;
+    }
+
+    /**
+     * Finds the first free block at or after given address.
+     *
+     * @param from address to start from
+     * @return address or -1, if there are no free blocks
+     */
+    int nextFreeRun(int from) {
+        int address = usedBlocks.nextClearBit(Math.max(from, nextFree));
+        return address < blocksCount ? address : -1;
+    }
+
+    /**
+     * Finds the end of the free run.
+     *
+     * @param start address of a free block
+     * @return address after the last free block of the run
+     */
+    int freeRunEnd(int start) {
+        int end = usedBlocks.nextSetBit(start);
+        return end == -1 || end > blocksCount ? blocksCount : end;
+    }
+
+    private void checkAddress(int address) {
+        if (address <= RESERVED_BLOCK || address >= blocksCount) {
+            throw new ArrayIndexOutOfBoundsException("Invalid block address: " + address);
+        }
+    }
+
+}
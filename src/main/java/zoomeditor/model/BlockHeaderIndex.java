@@ -0,0 +1,113 @@
+package main.java.zoomeditor.model;
+
+import java.util.Arrays;
+
+/**
+ * Decoded headers (previous address, next address, data size) of all data blocks.
+ * Headers are decoded in one sequential pass over the data region and stored as primitive columns,
+ * so chain walks do not read the image. Index should be updated together with every block header write.
+ */
+public class BlockHeaderIndex {
+    private static final short EMPTY = (short) Firmware.EMPTY_ADDRESS;
+
+    private final short[] previousAddresses;
+    private final short[] nextAddresses;
+    private final short[] dataSizes;
+
+    private BlockHeaderIndex(int blocksCount) {
+        previousAddresses = new short[blocksCount];
+        nextAddresses = new short[blocksCount];
+        dataSizes = new short[blocksCount];
+    }
+
+    /**
+     * Decodes headers of all blocks.
+     *
+     * @param dataRegion  firmware's data region
+     * @param blocksCount data blocks count (including reserved block)
+     * @return index
+     */
+    public static BlockHeaderIndex build(ImageRegion dataRegion, int blocksCount) {
+        BlockHeaderIndex index = new BlockHeaderIndex(blocksCount);
+        for (int address = 0; address < blocksCount; address++) {
+            int blockStartPos = Firmware.BLOCK_SIZE * address;
+            index.previousAddresses[address] =
+                    (short) dataRegion.getUnsignedShort(blockStartPos + Firmware.BLOCK_PREV_ADDR_OFFSET);
+            index.nextAddresses[address] =
+                    (short) dataRegion.getUnsignedShort(blockStartPos + Firmware.BLOCK_NEXT_ADDR_OFFSET);
+            index.dataSizes[address] = (short) dataRegion.getUnsignedShort(blockStartPos + Firmware.BLOCK_SIZE_OFFSET);
+        }
+        return index;
+    }
+
+    public int getPreviousAddress(int address) {
+        return previousAddresses[address] & 0xFFFF;
+    }
+
+    public int getNextAddress(int address) {
+        return nextAddresses[address] & 0xFFFF;
+    }
+
+    public int getDataSize(int address) {
+        return dataSizes[address] & 0xFFFF;
+    }
+
+    /**
+     * Updates the block header.
+     *
+     * @param address         block address
+     * @param previousAddress previous block address
+     * @param nextAddress     next block address
+     * @param dataSize        data size
+     */
+    public void set(int address, int previousAddress, int nextAddress, int dataSize) {
+        setLinks(address, previousAddress, nextAddress);
+        dataSizes[address] = (short) dataSize;
+    }
+
+    /**
+     * Updates previous and next addresses of the block.
+     *
+     * @param address         block address
+     * @param previousAddress previous block address
+     * @param nextAddress     next block address
+     */
+    public void setLinks(int address, int previousAddress, int nextAddress) {
+        previousAddresses[address] = (short) previousAddress;
+        nextAddresses[address] = (short) nextAddress;
+    }
+
+    /**
+     * Copies the header of one block to another block (block is moved).
+     *
+     * @param from source block address
+     * @param to   target block address
+     */
+    public void copy(int from, int to) {
+        previousAddresses[to] = previousAddresses[from];
+        nextAddresses[to] = nextAddresses[from];
+        dataSizes[to] = dataSizes[from];
+    }
+
+    /**
+     * Marks the blocks as filled with "FF" bytes.
+     *
+     * @param fromAddress first block address (inclusive)
+     * @param toAddress   last block address (exclusive)
+     */
+    public void clear(int fromAddress, int toAddress) {
+        Arrays.fill(previousAddresses, fromAddress, toAddress, EMPTY);
+        Arrays.fill(nextAddresses, fromAddress, toAddress, EMPTY);
+        Arrays.fill(dataSizes, fromAddress, toAddress, EMPTY);
+    }
+
+    /**
+     * Returns the number of blocks in the index.
+     *
+     * @return blocks count (including reserved block)
+     */
+    public int length() {
+        return dataSizes.length;
+    }
+
+}
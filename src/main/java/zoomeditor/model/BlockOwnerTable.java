@@ -0,0 +1,187 @@
+package main.java.zoomeditor.model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Block ownership index: maps every data block to the id of the patch, that owns it,
+ * and every patch id to the list of its blocks (in the chain order).
+ * Patch ids are small numbers, they are assigned during registration and reused after release.
+ */
+public class BlockOwnerTable {
+    public static final int NO_OWNER = 0;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final short[] owners; // block address -> patch id
+    private String[] fileNames = new String[INITIAL_CAPACITY]; // patch id -> file name
+    private int[][] patchBlocks = new int[INITIAL_CAPACITY][]; // patch id -> block addresses
+    private int[] patchBlocksCounts = new int[INITIAL_CAPACITY];
+    private final Deque<Integer> releasedIds = new ArrayDeque<>();
+    private int nextId = NO_OWNER + 1;
+
+    /**
+     * Creates a table, where all blocks are free.
+     *
+     * @param blocksCount data blocks count (including reserved block)
+     */
+    public BlockOwnerTable(int blocksCount) {
+        owners = new short[blocksCount];
+    }
+
+    /**
+     * Registers a new owner.
+     *
+     * @param fileName patch file name
+     * @return patch id
+     */
+    public int register(String fileName) {
+        int id;
+        if (!releasedIds.isEmpty()) {
+            id = releasedIds.pop();
+        } else {
+            if (nextId > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many block owners");
+            }
+            id = nextId++;
+            if (id == fileNames.length) {
+                fileNames = Arrays.copyOf(fileNames, id * 2);
+                patchBlocks = Arrays.copyOf(patchBlocks, id * 2);
+                patchBlocksCounts = Arrays.copyOf(patchBlocksCounts, id * 2);
+            }
+        }
+        fileNames[id] = fileName;
+        patchBlocks[id] = new int[INITIAL_CAPACITY];
+        patchBlocksCounts[id] = 0;
+        return id;
+    }
+
+    /**
+     * Assigns the block to the patch. The block is appended to the patch's block list.
+     *
+     * @param address block address
+     * @param id      patch id
+     */
+    public void assign(int address, int id) {
+        checkId(id);
+        owners[address] = (short) id;
+        int count = patchBlocksCounts[id];
+        if (count == patchBlocks[id].length) {
+            patchBlocks[id] = Arrays.copyOf(patchBlocks[id], count * 2);
+        }
+        patchBlocks[id][count] = address;
+        patchBlocksCounts[id] = count + 1;
+    }
+
+    /**
+     * Moves the block ownership to another address. The block keeps its position in the owner's block list.
+     *
+     * @param from current block address
+     * @param to   new block address (should be free)
+     */
+    public void move(int from, int to) {
+        int id = owners[from];
+        checkId(id);
+        int[] blocks = patchBlocks[id];
+        for (int i = 0; i < patchBlocksCounts[id]; i++) {
+            if (blocks[i] == from) {
+                blocks[i] = to;
+            }
+        }
+        owners[to] = (short) id;
+        owners[from] = NO_OWNER;
+    }
+
+    /**
+     * Checks, if some of the patch's blocks are owned by other patch (block chains are cross-linked).
+     *
+     * @param id patch id
+     * @return true, if patch shares blocks with other patch
+     */
+    public boolean isCrossLinked(int id) {
+        checkId(id);
+        for (int i = 0; i < patchBlocksCounts[id]; i++) {
+            if (owners[patchBlocks[id][i]] != id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases all blocks of the patch and unregisters the patch id.
+     * Blocks, that have been taken over by other patch (cross-linked), are left untouched.
+     *
+     * @param id patch id
+     * @return addresses of released blocks
+     */
+    public int[] release(int id) {
+        checkId(id);
+        int[] blocks = patchBlocks[id];
+        int releasedCount = 0;
+        for (int i = 0; i < patchBlocksCounts[id]; i++) {
+            int address = blocks[i];
+            if (owners[address] == id) {
+                owners[address] = NO_OWNER;
+                blocks[releasedCount++] = address;
+            }
+        }
+        fileNames[id] = null;
+        patchBlocks[id] = null;
+        patchBlocksCounts[id] = 0;
+        releasedIds.push(id);
+        return Arrays.copyOf(blocks, releasedCount);
+    }
+
+    /**
+     * Returns the owner of the block.
+     *
+     * @param address block address
+     * @return patch id or NO_OWNER
+     */
+    public int getOwner(int address) {
+        return owners[address];
+    }
+
+    /**
+     * Returns the file name of the block's owner.
+     *
+     * @param address block address
+     * @return file name or null, if block has no owner
+     */
+    public String getOwnerFileName(int address) {
+        return fileNames[owners[address]];
+    }
+
+    public String getFileName(int id) {
+        checkId(id);
+        return fileNames[id];
+    }
+
+    /**
+     * Returns the blocks of the patch in the assignment (chain) order.
+     *
+     * @param id patch id
+     * @return block addresses
+     */
+    public int[] getBlocks(int id) {
+        checkId(id);
+        return Arrays.copyOf(patchBlocks[id], patchBlocksCounts[id]);
+    }
+
+    /**
+     * Returns the number of blocks in the table.
+     *
+     * @return blocks count (including reserved block)
+     */
+    public int length() {
+        return owners.length;
+    }
+
+    private void checkId(int id) {
+        if (id <= NO_OWNER || id >= nextId || fileNames[id] == null) {
+            throw new IllegalArgumentException("Unknown block owner: " + id);
+        }
+    }
+
+}
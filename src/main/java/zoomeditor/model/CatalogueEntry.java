@@ -0,0 +1,113 @@
+package main.java.zoomeditor.model;
+
+import java.io.File;
+
+/**
+ * Catalogued firmware file: BIN blocks count and the patch list of its file table.
+ * Only metadata is stored, patch content is never read.
+ */
+public class CatalogueEntry {
+    private final File file;
+    private final long lastModified;
+    private final long size;
+    private final int binBlocksCount;
+    private final String[] fileNames; // patches in the file table order
+    private final String[] names; // patch names (null for raw-files)
+    private final int[] sizes; // patch sizes in bytes
+
+    /**
+     * Creates an entry.
+     *
+     * @param file           firmware file
+     * @param lastModified   modification time of the catalogued file
+     * @param size           file size in bytes
+     * @param binBlocksCount BIN blocks count
+     * @param fileNames      patch file names
+     * @param names          patch names
+     * @param sizes          patch sizes
+     */
+    public CatalogueEntry(File file, long lastModified, long size, int binBlocksCount,
+                          String[] fileNames, String[] names, int[] sizes) {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.binBlocksCount = binBlocksCount;
+        this.fileNames = fileNames;
+        this.names = names;
+        this.sizes = sizes;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getFileName() {
+        return file.getName();
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getBinBlocksCount() {
+        return binBlocksCount;
+    }
+
+    public int getPatchesCount() {
+        return fileNames.length;
+    }
+
+    public String getPatchFileName(int index) {
+        return fileNames[index];
+    }
+
+    public String getPatchName(int index) {
+        return names[index];
+    }
+
+    public int getPatchSize(int index) {
+        return sizes[index];
+    }
+
+    /**
+     * Returns the number of data blocks, that patches occupy.
+     *
+     * @return used blocks count
+     */
+    public int getUsedBlocksCount() {
+        int count = 0;
+        for (int size : sizes) {
+            count += (int) Math.ceil((double) size / (Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE));
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the patch with given file name or patch name (case insensitive).
+     *
+     * @param key file name or patch name
+     * @return patch index or -1, if firmware does not contain the patch
+     */
+    public int indexOfPatch(String key) {
+        for (int i = 0; i < fileNames.length; i++) {
+            if (fileNames[i].equalsIgnoreCase(key) || key.equalsIgnoreCase(names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks, if the catalogued data is still valid for the file.
+     *
+     * @return true, if file size and modification time have not been changed
+     */
+    public boolean isUpToDate() {
+        return file.length() == size && file.lastModified() == lastModified;
+    }
+
+}
@@ -0,0 +1,96 @@
+package main.java.zoomeditor.model;
+
+/**
+ * Block moves, that compact the firmware's data section: every used block above the compacted area is moved
+ * into the lowest free block. Blocks, that are already inside the compacted area, stay in place.
+ * Besides the moves, the plan counts the other writes of the defragmentation: rewritten block headers
+ * of the moved chains and the blocks above the compacted area, that are filled with "FF" bytes.
+ */
+public class DefragmentationPlan {
+    private static final int BLOCK_LINKS_SIZE = Firmware.BLOCK_PREV_ADDR_SIZE + Firmware.BLOCK_NEXT_ADDR_SIZE;
+    private final int[] sources;
+    private final int[] targets;
+    private final int usedBlocksCount;
+    private final int headersToRewrite;
+    private final int blocksToClear;
+
+    /**
+     * Creates a plan.
+     *
+     * @param sources          addresses of blocks to move
+     * @param targets          new addresses (in the same order as sources)
+     * @param usedBlocksCount  used blocks count: after compaction all used blocks are located in 1..usedBlocksCount
+     * @param headersToRewrite number of block headers, which previous or next address changes
+     * @param blocksToClear    number of blocks above the compacted area, that are not filled with "FF" yet
+     */
+    public DefragmentationPlan(int[] sources, int[] targets, int usedBlocksCount, int headersToRewrite,
+                               int blocksToClear) {
+        this.sources = sources;
+        this.targets = targets;
+        this.usedBlocksCount = usedBlocksCount;
+        this.headersToRewrite = headersToRewrite;
+        this.blocksToClear = blocksToClear;
+    }
+
+    public int getMovesCount() {
+        return sources.length;
+    }
+
+    public int getSource(int i) {
+        return sources[i];
+    }
+
+    public int getTarget(int i) {
+        return targets[i];
+    }
+
+    public int getUsedBlocksCount() {
+        return usedBlocksCount;
+    }
+
+    public int getHeadersToRewrite() {
+        return headersToRewrite;
+    }
+
+    public int getBlocksToClear() {
+        return blocksToClear;
+    }
+
+    /**
+     * Returns the number of bytes, that will be copied.
+     *
+     * @return bytes count
+     */
+    public long getBytesToCopy() {
+        return (long) Firmware.BLOCK_SIZE * sources.length;
+    }
+
+    /**
+     * Returns the number of bytes, that will be written into the data section:
+     * copied blocks, rewritten block links and "FF" fill of the blocks above the compacted area.
+     * File table rebuild is not counted.
+     *
+     * @return bytes count
+     */
+    public long getBytesToWrite() {
+        return getBytesToCopy() + (long) BLOCK_LINKS_SIZE * headersToRewrite
+                + (long) Firmware.BLOCK_SIZE * blocksToClear;
+    }
+
+    /**
+     * Checks, if defragmentation does not change the data section.
+     *
+     * @return true, if there are no blocks to move or to clear
+     */
+    public boolean isEmpty() {
+        return sources.length == 0 && blocksToClear == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "blocks to move: " + getMovesCount() + ", bytes to copy: " + getBytesToCopy()
+                + ", headers to rewrite: " + headersToRewrite + ", blocks to clear: " + blocksToClear
+                + ", bytes to write: " + getBytesToWrite() + ", used blocks: " + usedBlocksCount;
+    }
+
+}
@@ -0,0 +1,58 @@
+package main.java.zoomeditor.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of patch files extraction into a directory.
+ */
+public class ExtractionReport {
+    private final List<String> extractedFileNames = new ArrayList<>();
+    private final List<String> failedFileNames = new ArrayList<>();
+    private long extractedBytes;
+    private long elapsedMillis;
+
+    public List<String> getExtractedFileNames() {
+        return extractedFileNames;
+    }
+
+    public List<String> getFailedFileNames() {
+        return failedFileNames;
+    }
+
+    public long getExtractedBytes() {
+        return extractedBytes;
+    }
+
+    public void setExtractedBytes(long extractedBytes) {
+        this.extractedBytes = extractedBytes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public boolean isSuccess() {
+        return failedFileNames.isEmpty();
+    }
+
+    /**
+     * Returns extraction speed.
+     *
+     * @return megabytes per second
+     */
+    public double getThroughput() {
+        return elapsedMillis > 0 ? extractedBytes / 1024.0 / 1024.0 * 1000 / elapsedMillis : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "extracted: " + extractedFileNames.size() + " files, " + extractedBytes + " bytes in " + elapsedMillis
+                + " ms (" + String.format("%.1f", getThroughput()) + " MB/s), failed: " + failedFileNames.size();
+    }
+
+}
@@ -1,18 +1,23 @@
 package main.java.zoomeditor.model;
 
+import main.java.zoomeditor.util.BytePattern;
 import main.java.zoomeditor.util.ByteUtils;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 
 public class Firmware {
     public static final byte[] BIN_START_PATTERN = ByteUtils.hexStringToByteArray("55AA00010400");
+    public static final BytePattern BIN_START_MATCHER = new BytePattern(BIN_START_PATTERN);
     public static final int BIN_BLOCKS_COUNT_OFFSET = 8;
     public static final int BIN_BLOCKS_COUNT_SIZE = 2;
     public static final int SYS_BLOCKS_COUNT = 11;
+    public static final int FILE_TABLES_COUNT = 4;
+    public static final int FIRST_FILE_TABLE_BLOCK = 3; // each table takes 2 blocks
     public static final int FIRST_DATA_BLOCK = 10; // WHY 10!?
     public static final int BLOCK_SIZE = 4096;
     public static final int BLOCK_PREV_ADDR_OFFSET = 0; // previous address
@@ -22,6 +27,7 @@ public class Firmware {
     public static final int BLOCK_SIZE_OFFSET = 4;
     public static final int BLOCK_SIZE_SIZE = 2;
     public static final int BLOCK_INFO_SIZE = BLOCK_PREV_ADDR_SIZE + BLOCK_NEXT_ADDR_SIZE + BLOCK_SIZE_SIZE;
+    public static final int EMPTY_ADDRESS = 0xFFFF; // no previous or next block
     public static final List<String> EXCLUDE_FILENAMES = Collections.unmodifiableList(
             Arrays.asList("FLST_SEQ.ZDT", "FLST_SEQ.ZT2")); // will be excluded from the file table
 
@@ -30,19 +36,29 @@ public class Firmware {
     private int binStartPosition;
     private int binBlocksCount;
 
-    private byte[] systemBytes; // 11 blocks: 3 first blocks and 4*2 "file table" blocks
-    private byte[] dataBytes; // NB! First data block contains part of last file table
-    private String[] blocks;
-    private ArrayList<Patch> patches;
+    private FirmwareImage image; // BIN bytes
+    private ImageRegion systemRegion; // 11 blocks: 3 first blocks and 4*2 "file table" blocks
+    private ImageRegion dataRegion; // NB! First data block contains part of last file table
+    private BlockHeaderIndex blockHeaders;
+    private BlockOwnerTable blockOwners;
+    private BlockAllocator blockAllocator;
+    private PatchRegistry patches;
+    private List<IntegrityError> integrityErrors;
+    private BitSet quarantinedBlocks; // used blocks without owner, which should not be overwritten
 
     public Firmware(File firmwareFile) {
         this.firmwareFile = firmwareFile;
         binStartPosition = -1;
         binBlocksCount = -1;
-        systemBytes = null;
-        dataBytes = null;
-        blocks = null;
+        image = null;
+        systemRegion = null;
+        dataRegion = null;
+        blockHeaders = null;
+        blockOwners = null;
+        blockAllocator = null;
         patches = null;
+        integrityErrors = new ArrayList<>();
+        quarantinedBlocks = new BitSet();
     }
 
     public File getFirmwareFile() {
@@ -73,35 +89,109 @@ public class Firmware {
         this.binBlocksCount = binBlocksCount;
     }
 
-    public byte[] getSystemBytes() {
-        return systemBytes;
+    public FirmwareImage getImage() {
+        return image;
     }
 
-    public void setSystemBytes(byte[] systemBytes) {
-        this.systemBytes = systemBytes;
+    /**
+     * Sets the BIN image and makes the system and data region views over it.
+     * BIN blocks count should be set before.
+     *
+     * @param image BIN image
+     */
+    public void setImage(FirmwareImage image) {
+        this.image = image;
+        systemRegion = image.region(0, BLOCK_SIZE * SYS_BLOCKS_COUNT);
+        dataRegion = image.region(BLOCK_SIZE * FIRST_DATA_BLOCK, BLOCK_SIZE * (binBlocksCount - FIRST_DATA_BLOCK));
     }
 
-    public byte[] getDataBytes() {
-        return dataBytes;
+    public ImageRegion getSystemRegion() {
+        return systemRegion;
     }
 
-    public void setDataBytes(byte[] dataBytes) {
-        this.dataBytes = dataBytes;
+    public ImageRegion getDataRegion() {
+        return dataRegion;
     }
 
-    public String[] getBlocks() {
-        return blocks;
+    /**
+     * Returns BIN blocks (numbered from the BIN start), that have been modified since load.
+     *
+     * @return modified blocks
+     */
+    public BitSet getModifiedBlocks() {
+        return image.getModifiedBlocks();
     }
 
-    public void setBlocks(String[] blocks) {
-        this.blocks = blocks;
+    /**
+     * Returns numbers (0-3) of file tables, that have been modified since load.
+     *
+     * @return modified file tables
+     */
+    public List<Integer> getModifiedFileTables() {
+        BitSet modifiedBlocks = getModifiedBlocks();
+        List<Integer> tables = new ArrayList<>();
+        for (int i = 0; i < FILE_TABLES_COUNT; i++) {
+            int firstBlock = FIRST_FILE_TABLE_BLOCK + i * 2;
+            if (modifiedBlocks.get(firstBlock) || modifiedBlocks.get(firstBlock + 1)) {
+                tables.add(i);
+            }
+        }
+        return tables;
     }
 
-    public ArrayList<Patch> getPatches() {
+    /**
+     * Returns the block header index. Index is built on the first call, if it was not set during loading.
+     *
+     * @return block header index
+     */
+    public BlockHeaderIndex getBlockHeaders() {
+        if (blockHeaders == null && dataRegion != null) {
+            blockHeaders = BlockHeaderIndex.build(dataRegion, binBlocksCount - FIRST_DATA_BLOCK);
+        }
+        return blockHeaders;
+    }
+
+    public void setBlockHeaders(BlockHeaderIndex blockHeaders) {
+        this.blockHeaders = blockHeaders;
+    }
+
+    public BlockOwnerTable getBlockOwners() {
+        return blockOwners;
+    }
+
+    public void setBlockOwners(BlockOwnerTable blockOwners) {
+        this.blockOwners = blockOwners;
+    }
+
+    public BlockAllocator getBlockAllocator() {
+        return blockAllocator;
+    }
+
+    public void setBlockAllocator(BlockAllocator blockAllocator) {
+        this.blockAllocator = blockAllocator;
+    }
+
+    public PatchRegistry getPatches() {
         return patches;
     }
 
-    public void setPatches(ArrayList<Patch> patches) {
+    public void setPatches(PatchRegistry patches) {
         this.patches = patches;
     }
+
+    public List<IntegrityError> getIntegrityErrors() {
+        return integrityErrors;
+    }
+
+    public void setIntegrityErrors(List<IntegrityError> integrityErrors) {
+        this.integrityErrors = integrityErrors;
+    }
+
+    public BitSet getQuarantinedBlocks() {
+        return quarantinedBlocks;
+    }
+
+    public void setQuarantinedBlocks(BitSet quarantinedBlocks) {
+        this.quarantinedBlocks = quarantinedBlocks;
+    }
 }
@@ -0,0 +1,57 @@
+package main.java.zoomeditor.model;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Catalogued directory of firmware files.
+ */
+public class FirmwareCatalogue {
+    private final Path root;
+    private final List<CatalogueEntry> entries;
+    private final int rescannedCount;
+
+    /**
+     * Creates a catalogue.
+     *
+     * @param root           firmware directory
+     * @param entries        entries sorted by file path
+     * @param rescannedCount number of files, that were scanned during cataloguing (other entries were taken from
+     *                       the stored catalogue)
+     */
+    public FirmwareCatalogue(Path root, List<CatalogueEntry> entries, int rescannedCount) {
+        this.root = root;
+        this.entries = entries;
+        this.rescannedCount = rescannedCount;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public List<CatalogueEntry> getEntries() {
+        return entries;
+    }
+
+    public int getRescannedCount() {
+        return rescannedCount;
+    }
+
+    /**
+     * Finds firmware files, which contain the patch with given file name or patch name (case insensitive).
+     *
+     * @param key file name or patch name
+     * @return found entries
+     */
+    public List<CatalogueEntry> find(String key) {
+        List<CatalogueEntry> found = new ArrayList<>();
+        for (CatalogueEntry entry : entries) {
+            if (entry.indexOfPatch(key) != -1) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+}
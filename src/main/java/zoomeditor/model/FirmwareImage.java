@@ -0,0 +1,316 @@
+package main.java.zoomeditor.model;
+
+import main.java.zoomeditor.util.ByteUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Firmware's BIN image: read-only (usually memory-mapped) view of the original installer bytes
+ * with a copy-on-write overlay. Only the blocks, that get modified, are copied into the heap.
+ * All positions are relative to the BIN start.
+ */
+public class FirmwareImage {
+    private ByteBuffer source; // original BIN bytes, never modified
+    private MappedByteBuffer mapping; // mapped installer file, which source belongs to; null, if source is in the heap
+    private final byte[][] overlay; // modified blocks; null, if block is unchanged
+    private final BitSet modifiedBlocks = new BitSet();
+    private final int size;
+
+    public FirmwareImage(ByteBuffer source) {
+        this.source = source.slice();
+        this.mapping = source instanceof MappedByteBuffer ? (MappedByteBuffer) source : null;
+        this.size = this.source.capacity();
+        this.overlay = new byte[(size + Firmware.BLOCK_SIZE - 1) / Firmware.BLOCK_SIZE][];
+    }
+
+    /**
+     * Returns the image size in bytes.
+     *
+     * @return image size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads a single byte.
+     *
+     * @param position position in the image
+     * @return byte value
+     */
+    public byte get(int position) {
+        checkBounds(position, 1);
+        byte[] block = overlay[position / Firmware.BLOCK_SIZE];
+        return block != null ? block[position % Firmware.BLOCK_SIZE] : source.get(position);
+    }
+
+    /**
+     * Reads little-endian unsigned short (for example, block header field) without creating any objects.
+     *
+     * @param position position in the image
+     * @return value
+     */
+    public int getUnsignedShort(int position) {
+        checkBounds(position, 2);
+        int blockPos = position % Firmware.BLOCK_SIZE;
+        if (blockPos == Firmware.BLOCK_SIZE - 1) {
+            return (get(position) & 0xFF) | (get(position + 1) & 0xFF) << 8; // value crosses the block border
+        }
+        byte[] block = overlay[position / Firmware.BLOCK_SIZE];
+        return block != null ? ByteUtils.getUnsignedShort(block, blockPos) : ByteUtils.getUnsignedShort(source, position);
+    }
+
+    /**
+     * Copies image bytes into the given array.
+     *
+     * @param position position in the image
+     * @param dst      destination array
+     * @param offset   offset in the destination array
+     * @param length   number of bytes to copy
+     */
+    public void get(int position, byte[] dst, int offset, int length) {
+        checkBounds(position, length);
+        while (length > 0) {
+            int blockNr = position / Firmware.BLOCK_SIZE;
+            int blockPos = position % Firmware.BLOCK_SIZE;
+            int count = Math.min(length, Firmware.BLOCK_SIZE - blockPos);
+            if (overlay[blockNr] != null) {
+                System.arraycopy(overlay[blockNr], blockPos, dst, offset, count);
+            } else {
+                ByteBuffer src = source.duplicate();
+                src.position(position);
+                src.get(dst, offset, count);
+            }
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Returns a read-only buffer over the part of one block. Bytes are not copied, so the buffer can be written
+     * into a channel directly from the mapped file (or from the overlay, if block is modified).
+     *
+     * @param position position in the image
+     * @param length   number of bytes (the range must not cross the block border)
+     * @return read-only buffer, its position is 0
+     */
+    public ByteBuffer slice(int position, int length) {
+        checkBounds(position, length);
+        int blockPos = position % Firmware.BLOCK_SIZE;
+        if (blockPos + length > Firmware.BLOCK_SIZE) {
+            throw new ArrayIndexOutOfBoundsException("Slice crosses the block border: " + position + " (+" + length + ")");
+        }
+        byte[] block = overlay[position / Firmware.BLOCK_SIZE];
+        if (block != null) {
+            return ByteBuffer.wrap(block, blockPos, length).slice().asReadOnlyBuffer();
+        }
+        ByteBuffer src = source.duplicate();
+        src.position(position);
+        src.limit(position + length);
+        return src.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes bytes into the image. Affected blocks are copied into the overlay on the first write.
+     * Writing the same bytes, that image already contains, does not modify the block.
+     *
+     * @param position position in the image
+     * @param src      source array
+     * @param offset   offset in the source array
+     * @param length   number of bytes to write
+     */
+    public void put(int position, byte[] src, int offset, int length) {
+        checkBounds(position, length);
+        while (length > 0) {
+            int blockPos = position % Firmware.BLOCK_SIZE;
+            int count = Math.min(length, Firmware.BLOCK_SIZE - blockPos);
+            if (!containsBytes(position, src, offset, count)) {
+                System.arraycopy(src, offset, getWritableBlock(position / Firmware.BLOCK_SIZE, count), blockPos, count);
+            }
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Writes a single byte. Writing the same byte, that image already contains, does not modify the block.
+     *
+     * @param position position in the image
+     * @param b        byte
+     */
+    public void put(int position, byte b) {
+        checkBounds(position, 1);
+        if (get(position) != b) {
+            getWritableBlock(position / Firmware.BLOCK_SIZE, 1)[position % Firmware.BLOCK_SIZE] = b;
+        }
+    }
+
+    /**
+     * Writes lower 2 bytes of the value in little-endian order without creating any objects.
+     *
+     * @param position position in the image
+     * @param value    value
+     */
+    public void putShort(int position, int value) {
+        put(position, (byte) value);
+        put(position + 1, (byte) (value >>> 8));
+    }
+
+    /**
+     * Fills the part of the image with the specified byte.
+     *
+     * @param position position in the image
+     * @param length   number of bytes to fill
+     * @param b        byte
+     */
+    public void fill(int position, int length, byte b) {
+        checkBounds(position, length);
+        while (length > 0) {
+            int blockPos = position % Firmware.BLOCK_SIZE;
+            int count = Math.min(length, Firmware.BLOCK_SIZE - blockPos);
+            if (!containsByte(position, count, b)) {
+                Arrays.fill(getWritableBlock(position / Firmware.BLOCK_SIZE, count), blockPos, blockPos + count, b);
+            }
+            position += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Checks, if the part of the image is filled with given byte.
+     *
+     * @param position start position
+     * @param length   number of bytes to check
+     * @param b        byte
+     * @return true, if all bytes are equal to given byte
+     */
+    public boolean isFilled(int position, int length, byte b) {
+        checkBounds(position, length);
+        while (length > 0) {
+            int count = Math.min(length, Firmware.BLOCK_SIZE - position % Firmware.BLOCK_SIZE);
+            if (!containsByte(position, count, b)) {
+                return false;
+            }
+            position += count;
+            length -= count;
+        }
+        return true;
+    }
+
+    /**
+     * Makes a window over the part of the image.
+     *
+     * @param offset region start position in the image
+     * @param length region size
+     * @return region view
+     */
+    public ImageRegion region(int offset, int length) {
+        checkBounds(offset, length);
+        return new ImageRegion(this, offset, length);
+    }
+
+    /**
+     * Returns numbers of blocks, that have been modified since the image was loaded.
+     *
+     * @return copy of modified blocks set
+     */
+    public BitSet getModifiedBlocks() {
+        return (BitSet) modifiedBlocks.clone();
+    }
+
+    /**
+     * Copies the original bytes into the heap and releases the file mapping, so the image does not depend
+     * on the source file anymore. Should be called before the source file gets replaced or overwritten.
+     * NB! Buffers, that have been returned by {@link #slice(int, int)} before, must not be used afterwards.
+     *
+     * @return true, if the source file is not mapped anymore
+     */
+    public boolean detach() {
+        if (source.isDirect()) {
+            ByteBuffer copy = ByteBuffer.allocate(size);
+            copy.put(source.duplicate());
+            copy.flip();
+            source = copy;
+        }
+        if (mapping != null && ByteUtils.unmap(mapping)) {
+            mapping = null;
+        }
+        return mapping == null;
+    }
+
+    /**
+     * Releases the file mapping without copying the original bytes into the heap, when the image is not needed
+     * anymore (for example, after the file's metadata is read). Reading of unchanged bytes fails afterwards.
+     */
+    public void release() {
+        source = ByteBuffer.allocate(0);
+        if (mapping != null) {
+            ByteUtils.unmap(mapping);
+            mapping = null;
+        }
+    }
+
+    /**
+     * Returns the overlay copy of the block; creates it on the first write.
+     *
+     * @param blockNr      block number
+     * @param bytesToWrite number of bytes, that will be written: whole block overwriting does not need a copy
+     * @return modifiable block bytes
+     */
+    private byte[] getWritableBlock(int blockNr, int bytesToWrite) {
+        byte[] block = overlay[blockNr];
+        if (block == null) {
+            int blockStart = blockNr * Firmware.BLOCK_SIZE;
+            block = new byte[Math.min(Firmware.BLOCK_SIZE, size - blockStart)];
+            if (bytesToWrite < block.length) {
+                ByteBuffer src = source.duplicate();
+                src.position(blockStart);
+                src.get(block);
+            }
+            overlay[blockNr] = block;
+            modifiedBlocks.set(blockNr);
+        }
+        return block;
+    }
+
+    /**
+     * Checks, if the image already contains given bytes (within one block).
+     */
+    private boolean containsBytes(int position, byte[] src, int offset, int count) {
+        byte[] block = overlay[position / Firmware.BLOCK_SIZE];
+        int blockPos = position % Firmware.BLOCK_SIZE;
+        for (int i = 0; i < count; i++) {
+            byte b = block != null ? block[blockPos + i] : source.get(position + i);
+            if (b != src[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks, if the part of the image (within one block) is already filled with given byte.
+     */
+    private boolean containsByte(int position, int count, byte b) {
+        byte[] block = overlay[position / Firmware.BLOCK_SIZE];
+        int blockPos = position % Firmware.BLOCK_SIZE;
+        for (int i = 0; i < count; i++) {
+            if ((block != null ? block[blockPos + i] : source.get(position + i)) != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkBounds(int position, int length) {
+        if (position < 0 || length < 0 || position > size - length) {
+            throw new ArrayIndexOutOfBoundsException("Image position out of range: " + position + " (+" + length + ")");
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package main.java.zoomeditor.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fragmentation statistics of the firmware's data blocks.
+ */
+public class FragmentationReport {
+    private final Map<String, Integer> patchExtents = new LinkedHashMap<>(); // file name -> contiguous runs count
+    private int patchBlocks;
+    private int usedBlocks;
+    private int freeBlocks;
+    private int freeRunsCount;
+    private int largestFreeRun;
+
+    /**
+     * Returns the number of contiguous block runs (extents) of each patch, in the file table order.
+     *
+     * @return file name -> extents count
+     */
+    public Map<String, Integer> getPatchExtents() {
+        return patchExtents;
+    }
+
+    /**
+     * Returns the number of blocks in the chains of all patches (reserved and quarantined blocks are not counted).
+     *
+     * @return patch blocks count
+     */
+    public int getPatchBlocks() {
+        return patchBlocks;
+    }
+
+    public void setPatchBlocks(int patchBlocks) {
+        this.patchBlocks = patchBlocks;
+    }
+
+    public int getUsedBlocks() {
+        return usedBlocks;
+    }
+
+    public void setUsedBlocks(int usedBlocks) {
+        this.usedBlocks = usedBlocks;
+    }
+
+    public int getFreeBlocks() {
+        return freeBlocks;
+    }
+
+    public void setFreeBlocks(int freeBlocks) {
+        this.freeBlocks = freeBlocks;
+    }
+
+    public int getFreeRunsCount() {
+        return freeRunsCount;
+    }
+
+    public void setFreeRunsCount(int freeRunsCount) {
+        this.freeRunsCount = freeRunsCount;
+    }
+
+    public int getLargestFreeRun() {
+        return largestFreeRun;
+    }
+
+    public void setLargestFreeRun(int largestFreeRun) {
+        this.largestFreeRun = largestFreeRun;
+    }
+
+    /**
+     * Returns the number of patches, that consist of more than one extent.
+     *
+     * @return fragmented patches count
+     */
+    public int getFragmentedPatchesCount() {
+        int count = 0;
+        for (int extents : patchExtents.values()) {
+            if (extents > 1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the share of block-to-block transitions inside patches, that are not contiguous:
+     * 0 means that every patch is one contiguous run, 1 means that no two blocks of any patch are adjacent.
+     *
+     * @return fragmentation ratio (0..1)
+     */
+    public double getFragmentationRatio() {
+        int extraExtents = 0;
+        int chainsCount = 0;
+        for (int extents : patchExtents.values()) {
+            if (extents > 0) {
+                extraExtents += extents - 1;
+                chainsCount++;
+            }
+        }
+        int transitions = patchBlocks - chainsCount;
+        return transitions > 0 ? (double) extraExtents / transitions : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "patches: " + patchExtents.size() +
+                ", fragmented patches: " + getFragmentedPatchesCount() +
+                ", fragmentation ratio: " + String.format("%.3f", getFragmentationRatio()) +
+                ", free blocks: " + freeBlocks +
+                ", free runs: " + freeRunsCount +
+                ", largest free run: " + largestFreeRun;
+    }
+
+}
@@ -0,0 +1,87 @@
+package main.java.zoomeditor.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Window over the part of the firmware image (for example, system or data section of the BIN).
+ * All positions are relative to the region start.
+ */
+public class ImageRegion {
+    private final FirmwareImage image;
+    private final int offset;
+    private final int length;
+
+    ImageRegion(FirmwareImage image, int offset, int length) {
+        this.image = image;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte get(int position) {
+        checkBounds(position, 1);
+        return image.get(offset + position);
+    }
+
+    public int getUnsignedShort(int position) {
+        checkBounds(position, 2);
+        return image.getUnsignedShort(offset + position);
+    }
+
+    public void get(int position, byte[] dst, int dstOffset, int count) {
+        checkBounds(position, count);
+        image.get(offset + position, dst, dstOffset, count);
+    }
+
+    public ByteBuffer slice(int position, int count) {
+        checkBounds(position, count);
+        return image.slice(offset + position, count);
+    }
+
+    /**
+     * Copies the part of the region into a new array.
+     *
+     * @param position the initial position of the range to be copied, inclusive
+     * @param count    number of bytes to copy
+     * @return a new array
+     */
+    public byte[] copy(int position, int count) {
+        byte[] bytes = new byte[count];
+        get(position, bytes, 0, count);
+        return bytes;
+    }
+
+    public void put(int position, byte[] src, int srcOffset, int count) {
+        checkBounds(position, count);
+        image.put(offset + position, src, srcOffset, count);
+    }
+
+    public void put(int position, byte[] src) {
+        put(position, src, 0, src.length);
+    }
+
+    public void putShort(int position, int value) {
+        checkBounds(position, 2);
+        image.putShort(offset + position, value);
+    }
+
+    public void fill(int position, int count, byte b) {
+        checkBounds(position, count);
+        image.fill(offset + position, count, b);
+    }
+
+    public boolean isFilled(int position, int count, byte b) {
+        checkBounds(position, count);
+        return image.isFilled(offset + position, count, b);
+    }
+
+    private void checkBounds(int position, int count) {
+        if (position < 0 || count < 0 || position > length - count) {
+            throw new ArrayIndexOutOfBoundsException("Region position out of range: " + position + " (+" + count + ")");
+        }
+    }
+
+}
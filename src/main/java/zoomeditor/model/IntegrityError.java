@@ -0,0 +1,55 @@
+package main.java.zoomeditor.model;
+
+/**
+ * Firmware integrity problem, which was found during loading (broken or cross-linked block chain).
+ * Patch with such problem is not loaded.
+ */
+public class IntegrityError {
+    private final Patch patch;
+    private final int address;
+    private final String message;
+    private int position; // position in the patch list, where the patch would be, if it was loaded
+
+    /**
+     * Creates an error.
+     *
+     * @param patch   file table item of the patch, that is not loaded
+     * @param address address of the problem block
+     * @param message problem description
+     */
+    public IntegrityError(Patch patch, int address, String message) {
+        this.patch = patch;
+        this.address = address;
+        this.message = message;
+    }
+
+    public Patch getPatch() {
+        return patch;
+    }
+
+    public String getFileName() {
+        return patch.getFileName();
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    @Override
+    public String toString() {
+        return getFileName() + ": " + message + ", address: " + address;
+    }
+
+}
@@ -0,0 +1,82 @@
+package main.java.zoomeditor.model;
+
+import java.io.File;
+
+/**
+ * Indexed patch file of the patch library.
+ */
+public class LibraryEntry {
+    private final File file;
+    private final long lastModified;
+    private final int size;
+    private final String name;
+
+    /**
+     * Creates an entry.
+     *
+     * @param file         patch file
+     * @param lastModified modification time of the indexed file
+     * @param size         file size in bytes
+     * @param name         patch name (null for raw-files)
+     */
+    public LibraryEntry(File file, long lastModified, int size, String name) {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.name = name;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getFileName() {
+        return file.getName();
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the file format: file extension in upper case ("ZDL", "ZD2" or "RAW").
+     *
+     * @return format
+     */
+    public String getFormat() {
+        String fileName = getFileName();
+        return fileName.substring(fileName.lastIndexOf('.') + 1).toUpperCase();
+    }
+
+    /**
+     * Returns the number of firmware blocks, that the patch will occupy.
+     *
+     * @return blocks count
+     */
+    public int getBlocksCount() {
+        return (int) Math.ceil((double) size / (Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE));
+    }
+
+    /**
+     * Checks, if the indexed data is still valid for the file.
+     *
+     * @return true, if file size and modification time have not been changed
+     */
+    public boolean isUpToDate() {
+        return file.length() == size && file.lastModified() == lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return getFileName() + " (" + (name != null ? name : "") + ", " + getFormat() + ", " + size + " bytes)";
+    }
+
+}
@@ -0,0 +1,108 @@
+package main.java.zoomeditor.model;
+
+/**
+ * Parsed structure of a firmware file, that is stored on disk, so the file can be reopened
+ * without BIN search and block chains walking.
+ */
+public class ParseCacheEntry {
+    private String filePath;
+    private long fileSize;
+    private long lastModified;
+    private int binStartPosition;
+    private int binBlocksCount;
+    private int fileTablePosition;
+    private int systemRegionCrc; // CRC32 of BIN system blocks (file tables)
+    private boolean excludeSequenceFiles; // patch list depends on this setting
+    private byte[][] fileTableItems; // loaded patches in the file table order
+    private String[] patchNames;
+    private int[][] patchBlocks; // block addresses in the chain order
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public int getBinStartPosition() {
+        return binStartPosition;
+    }
+
+    public void setBinStartPosition(int binStartPosition) {
+        this.binStartPosition = binStartPosition;
+    }
+
+    public int getBinBlocksCount() {
+        return binBlocksCount;
+    }
+
+    public void setBinBlocksCount(int binBlocksCount) {
+        this.binBlocksCount = binBlocksCount;
+    }
+
+    public int getFileTablePosition() {
+        return fileTablePosition;
+    }
+
+    public void setFileTablePosition(int fileTablePosition) {
+        this.fileTablePosition = fileTablePosition;
+    }
+
+    public int getSystemRegionCrc() {
+        return systemRegionCrc;
+    }
+
+    public void setSystemRegionCrc(int systemRegionCrc) {
+        this.systemRegionCrc = systemRegionCrc;
+    }
+
+    public boolean isExcludeSequenceFiles() {
+        return excludeSequenceFiles;
+    }
+
+    public void setExcludeSequenceFiles(boolean excludeSequenceFiles) {
+        this.excludeSequenceFiles = excludeSequenceFiles;
+    }
+
+    public byte[][] getFileTableItems() {
+        return fileTableItems;
+    }
+
+    public void setFileTableItems(byte[][] fileTableItems) {
+        this.fileTableItems = fileTableItems;
+    }
+
+    public String[] getPatchNames() {
+        return patchNames;
+    }
+
+    public void setPatchNames(String[] patchNames) {
+        this.patchNames = patchNames;
+    }
+
+    public int[][] getPatchBlocks() {
+        return patchBlocks;
+    }
+
+    public void setPatchBlocks(int[][] patchBlocks) {
+        this.patchBlocks = patchBlocks;
+    }
+
+}
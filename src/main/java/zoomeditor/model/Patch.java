@@ -1,8 +1,13 @@
 package main.java.zoomeditor.model;
 
 import main.java.zoomeditor.util.ArrayUtils;
+import main.java.zoomeditor.util.BytePattern;
 import main.java.zoomeditor.util.ByteUtils;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
 public class Patch {
     public static final int ADDR_OFFSET = 0;
     public static final int ADDR_SIZE = 2;
@@ -10,16 +15,19 @@ public class Patch {
     public static final int SIZE_SIZE = 4;
     public static final int FILENAME_OFFSET = 8;
     public static final int FILENAME_SIZE = 12;
-    private static final byte[] ON_OFF_PATTERN = "OnOff".getBytes();
-    private static final byte[] NAME_END_PATTERN = ArrayUtils.makeAndFillArray(4, (byte) 0xFF);
+    private static final BytePattern ON_OFF_MATCHER = new BytePattern("OnOff".getBytes());
+    private static final BytePattern NAME_END_MATCHER = new BytePattern(ArrayUtils.makeAndFillArray(4, (byte) 0xFF));
     private static final int NAME_SIZE = 12; // actually maximum used name length is 9
+    private static final int NAME_SEARCH_SIZE = Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE; // first block
 
+    private int id; // block owner id, assigned when patch gets its blocks
     private String fileName;
     private String name;
     private int address; // patch's first block address
     private int size;
     private byte[] fileTableItem;
-    private byte[] content;
+    private byte[] content; // content, that is not stored in firmware yet (for example, loaded from file)
+    private PatchContentView contentView; // content, that is stored in firmware's blocks
 
     public String extractFileNameFromFileTableItem() {
         if (fileTableItem == null || fileTableItem.length == 0) {
@@ -36,15 +44,27 @@ public class Patch {
     }
 
     public String extractNameFromContent() {
-        if (content == null || content.length == 0) {
+        if (!hasContent() || getContentSize() == 0) {
             return null;
         }
-        int onOffPos = ByteUtils.indexOf(content, ON_OFF_PATTERN, 0); // offset could be increased for optimization
+        if (contentView != null && contentView.size() > NAME_SEARCH_SIZE) {
+            // name is usually located in the beginning: try to find it without reading the whole content
+            byte[] head = contentView.copyPrefix(NAME_SEARCH_SIZE);
+            int onOffPos = ON_OFF_MATCHER.indexOf(head, 0);
+            if (onOffPos != -1 && NAME_END_MATCHER.indexOf(head, onOffPos) != -1) {
+                return extractName(head);
+            }
+        }
+        return extractName(getContent());
+    }
+
+    private static String extractName(byte[] bytes) {
+        int onOffPos = ON_OFF_MATCHER.indexOf(bytes, 0); // offset could be increased for optimization
         if (onOffPos == -1) {
             return null; // raw-files are nameless
         }
-        int nameEndPos = ByteUtils.indexOf(content, NAME_END_PATTERN, onOffPos);
-        return new String(ArrayUtils.copyPart(content, nameEndPos - NAME_SIZE, NAME_SIZE)).trim();
+        int nameEndPos = NAME_END_MATCHER.indexOf(bytes, onOffPos);
+        return new String(ArrayUtils.copyPart(bytes, nameEndPos - NAME_SIZE, NAME_SIZE)).trim();
     }
 
     public byte[] getAddressBytes() {
@@ -61,6 +81,14 @@ public class Patch {
         return ArrayUtils.copyPart(getFileTableItem(), SIZE_OFFSET, SIZE_SIZE);
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public String getFileName() {
         return fileName;
     }
@@ -101,12 +129,59 @@ public class Patch {
         this.fileTableItem = fileTableItem;
     }
 
+    /**
+     * Returns the patch content. If content is stored in firmware, then it is copied into a new array on every call.
+     *
+     * @return content or null, if patch has no content
+     */
     public byte[] getContent() {
-        return content;
+        return content != null || contentView == null ? content : contentView.toArray();
     }
 
     public void setContent(byte[] content) {
         this.content = content;
+        this.contentView = null;
+    }
+
+    public void setContentView(PatchContentView contentView) {
+        this.contentView = contentView;
+        this.content = null;
+    }
+
+    public boolean hasContent() {
+        return content != null || contentView != null;
+    }
+
+    public int getContentSize() {
+        return content != null ? content.length : contentView != null ? contentView.size() : 0;
+    }
+
+    /**
+     * Copies the content out of the firmware blocks, so the patch does not depend on them anymore.
+     * Should be called before patch's blocks get rewritten.
+     */
+    public void materializeContent() {
+        if (contentView != null) {
+            setContent(contentView.toArray());
+        }
+    }
+
+    /**
+     * Writes the content into the channel. Content, that is stored in firmware, is written with one gathering write
+     * of its blocks without intermediate copies.
+     *
+     * @param channel output channel
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeContent(GatheringByteChannel channel) throws IOException {
+        if (contentView != null) {
+            contentView.writeTo(channel);
+        } else if (content != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,85 @@
+package main.java.zoomeditor.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Patch content, that stays in the firmware image: ordered list of the patch's blocks (scatter-gather view).
+ * Bytes are copied out of the image only when they are requested.
+ * NB! View is valid only while patch's blocks are not rewritten (for example, by defragmentation).
+ */
+public class PatchContentView {
+    private final ImageRegion dataRegion;
+    private final int[] blocks;
+    private final int size;
+
+    /**
+     * Creates a view.
+     *
+     * @param dataRegion firmware's data region
+     * @param blocks     block addresses in the chain order
+     * @param size       content size in bytes (sum of blocks' data sizes)
+     */
+    public PatchContentView(ImageRegion dataRegion, int[] blocks, int size) {
+        this.dataRegion = dataRegion;
+        this.blocks = blocks;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies the whole content into a new array.
+     *
+     * @return content bytes
+     */
+    public byte[] toArray() {
+        return copyPrefix(size);
+    }
+
+    /**
+     * Copies the beginning of the content into a new array. Only the blocks, that are needed, are read.
+     *
+     * @param count maximum number of bytes
+     * @return content bytes (shorter than count, if content is shorter)
+     */
+    public byte[] copyPrefix(int count) {
+        byte[] bytes = new byte[Math.min(count, size)];
+        int copied = 0;
+        for (int i = 0; i < blocks.length && copied < bytes.length; i++) {
+            int blockStartPos = Firmware.BLOCK_SIZE * blocks[i];
+            int dataSize = Math.min(getDataSize(blockStartPos), bytes.length - copied);
+            dataRegion.get(blockStartPos + Firmware.BLOCK_INFO_SIZE, bytes, copied, dataSize);
+            copied += dataSize;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the content into the channel with one gathering write of all blocks' data (it is repeated only,
+     * if the channel accepts less bytes). Blocks' data is not copied into intermediate buffers.
+     *
+     * @param channel output channel
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] slices = new ByteBuffer[blocks.length];
+        long remaining = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            int blockStartPos = Firmware.BLOCK_SIZE * blocks[i];
+            slices[i] = dataRegion.slice(blockStartPos + Firmware.BLOCK_INFO_SIZE, getDataSize(blockStartPos));
+            remaining += slices[i].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(slices);
+        }
+    }
+
+    private int getDataSize(int blockStartPos) {
+        return dataRegion.getUnsignedShort(blockStartPos + Firmware.BLOCK_SIZE_OFFSET); // validated during chain walk or parse cache restore
+    }
+
+}
@@ -0,0 +1,56 @@
+package main.java.zoomeditor.model;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Indexed directory tree of patch files.
+ */
+public class PatchLibrary {
+    private final Path root;
+    private final List<LibraryEntry> entries;
+    private final int rescannedCount;
+
+    /**
+     * Creates a library.
+     *
+     * @param root           library directory
+     * @param entries        entries sorted by file path
+     * @param rescannedCount number of files, that were parsed during indexing (other entries were taken from index)
+     */
+    public PatchLibrary(Path root, List<LibraryEntry> entries, int rescannedCount) {
+        this.root = root;
+        this.entries = entries;
+        this.rescannedCount = rescannedCount;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public List<LibraryEntry> getEntries() {
+        return entries;
+    }
+
+    public int getRescannedCount() {
+        return rescannedCount;
+    }
+
+    /**
+     * Finds entries by file name or by patch name (case insensitive).
+     *
+     * @param key file name or patch name
+     * @return found entries
+     */
+    public List<LibraryEntry> find(String key) {
+        List<LibraryEntry> found = new ArrayList<>();
+        for (LibraryEntry entry : entries) {
+            if (entry.getFileName().equalsIgnoreCase(key) || key.equalsIgnoreCase(entry.getName())) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+}
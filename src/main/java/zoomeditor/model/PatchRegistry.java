@@ -0,0 +1,224 @@
+package main.java.zoomeditor.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ordered list of firmware's patches (in the file table order) with lookup by file name and by patch name.
+ * File names are unique, patch names are not (and raw-files have no names at all).
+ * Changes of the list are reported to the listener, so views can be updated without rereading the whole list.
+ */
+public class PatchRegistry implements Iterable<Patch> {
+    private final ArrayList<Patch> patches = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>(); // file name -> index
+    private Listener listener = Listener.NONE;
+
+    /**
+     * Receives changes of the patch list. Methods are called in the thread, that modifies the registry.
+     */
+    public interface Listener {
+        Listener NONE = new Listener() {
+        };
+
+        /**
+         * Called after patches are inserted.
+         *
+         * @param firstIndex index of the first inserted patch
+         * @param inserted   inserted patches
+         */
+        default void patchesInserted(int firstIndex, List<Patch> inserted) {
+        }
+
+        /**
+         * Called after a range of patches is removed. Several ranges are reported from the end of the list,
+         * so indexes of every range are valid after previous ranges are removed.
+         *
+         * @param firstIndex index of the first removed patch
+         * @param lastIndex  index of the last removed patch
+         */
+        default void patchesRemoved(int firstIndex, int lastIndex) {
+        }
+
+        /**
+         * Called after two patches are swapped.
+         *
+         * @param i index of the first patch
+         * @param j index of the second patch
+         */
+        default void patchesSwapped(int i, int j) {
+        }
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sets the listener of the list changes (replaces the previous one).
+     *
+     * @param listener listener or null, if changes are not listened
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener != null ? listener : Listener.NONE;
+    }
+
+    /**
+     * Appends the patch to the end of the list.
+     *
+     * @param patch patch
+     * @return false, if patch with the same file name is already present
+     */
+    public boolean add(Patch patch) {
+        if (positions.containsKey(patch.getFileName())) {
+            return false;
+        }
+        positions.put(patch.getFileName(), patches.size());
+        patches.add(patch);
+        listener.patchesInserted(patches.size() - 1, Collections.singletonList(patch));
+        return true;
+    }
+
+    /**
+     * Inserts the patch at the given position.
+     *
+     * @param index position
+     * @param patch patch
+     * @return false, if patch with the same file name is already present
+     */
+    public boolean add(int index, Patch patch) {
+        if (positions.containsKey(patch.getFileName())) {
+            return false;
+        }
+        patches.add(index, patch);
+        for (int i = index; i < patches.size(); i++) {
+            positions.put(patches.get(i).getFileName(), i);
+        }
+        listener.patchesInserted(index, Collections.singletonList(patch));
+        return true;
+    }
+
+    public Patch get(int index) {
+        return patches.get(index);
+    }
+
+    public boolean contains(String fileName) {
+        return positions.containsKey(fileName);
+    }
+
+    /**
+     * Finds the patch by its file name.
+     *
+     * @param fileName file name
+     * @return patch or null, if not found
+     */
+    public Patch getByFileName(String fileName) {
+        Integer index = positions.get(fileName);
+        return index != null ? patches.get(index) : null;
+    }
+
+    /**
+     * Finds patches by patch name (name extracted from content).
+     * Names are set after patches are added (and can be changed later), so they are not indexed: the list is scanned.
+     *
+     * @param name patch name
+     * @return patches with given name in the list order (may be empty)
+     */
+    public List<Patch> getByName(String name) {
+        List<Patch> found = new ArrayList<>();
+        for (Patch patch : patches) {
+            if (name != null && name.equals(patch.getName())) {
+                found.add(patch);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the position of the patch in the list.
+     *
+     * @param fileName file name
+     * @return index or -1, if not found
+     */
+    public int indexOf(String fileName) {
+        Integer index = positions.get(fileName);
+        return index != null ? index : -1;
+    }
+
+    public int size() {
+        return patches.size();
+    }
+
+    public boolean isEmpty() {
+        return patches.isEmpty();
+    }
+
+    /**
+     * Swaps two patches in the list.
+     *
+     * @param i index of the first patch
+     * @param j index of the second patch
+     */
+    public void swap(int i, int j) {
+        Collections.swap(patches, i, j);
+        positions.put(patches.get(i).getFileName(), i);
+        positions.put(patches.get(j).getFileName(), j);
+        listener.patchesSwapped(i, j);
+    }
+
+    /**
+     * Removes all patches with given file names in one pass.
+     *
+     * @param fileNames file names of patches to remove
+     * @return removed patches
+     */
+    public List<Patch> removeAll(Collection<String> fileNames) {
+        Set<String> fileNamesToRemove = fileNames instanceof Set ? (Set<String>) fileNames : new HashSet<>(fileNames);
+        List<Patch> removed = new ArrayList<>();
+        List<int[]> removedRanges = new ArrayList<>(); // first and last index
+        int newSize = 0;
+        for (int i = 0; i < patches.size(); i++) {
+            Patch patch = patches.get(i);
+            if (fileNamesToRemove.contains(patch.getFileName())) {
+                removed.add(patch);
+                int[] lastRange = removedRanges.isEmpty() ? null : removedRanges.get(removedRanges.size() - 1);
+                if (lastRange != null && lastRange[1] == i - 1) {
+                    lastRange[1] = i;
+                } else {
+                    removedRanges.add(new int[]{i, i});
+                }
+                positions.remove(patch.getFileName());
+            } else {
+                patches.set(newSize, patch);
+                positions.put(patch.getFileName(), newSize);
+                newSize++;
+            }
+        }
+        patches.subList(newSize, patches.size()).clear();
+        for (int i = removedRanges.size() - 1; i >= 0; i--) {
+            listener.patchesRemoved(removedRanges.get(i)[0], removedRanges.get(i)[1]);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the unmodifiable live view of the patch list.
+     *
+     * @return patch list
+     */
+    public List<Patch> asList() {
+        return Collections.unmodifiableList(patches);
+    }
+
+    @Override
+    public Iterator<Patch> iterator() {
+        return asList().iterator();
+    }
+
+}
@@ -0,0 +1,70 @@
+package main.java.zoomeditor.model;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of the block chains scan: chains of not loaded patches, that can be reattached,
+ * blocks, that should be quarantined, and problem blocks, that were found.
+ */
+public class RecoveryReport {
+    private final Map<Patch, int[]> recoverableChains = new LinkedHashMap<>(); // patch -> blocks in chain order
+    private final BitSet blocksToQuarantine = new BitSet();
+    private final BitSet orphanedBlocks = new BitSet();
+    private final BitSet crossLinkedBlocks = new BitSet();
+    private int fragmentsCount;
+
+    public Map<Patch, int[]> getRecoverableChains() {
+        return recoverableChains;
+    }
+
+    /**
+     * Returns blocks of not recoverable chains, which are not owned by any loaded patch.
+     *
+     * @return block addresses
+     */
+    public BitSet getBlocksToQuarantine() {
+        return blocksToQuarantine;
+    }
+
+    /**
+     * Returns blocks, that look like chain blocks, but belong neither to loaded patches nor to file table items.
+     * They are usually left by removed patches.
+     *
+     * @return block addresses
+     */
+    public BitSet getOrphanedBlocks() {
+        return orphanedBlocks;
+    }
+
+    /**
+     * Returns blocks, which are referenced as the next block by several blocks.
+     *
+     * @return block addresses
+     */
+    public BitSet getCrossLinkedBlocks() {
+        return crossLinkedBlocks;
+    }
+
+    public int getFragmentsCount() {
+        return fragmentsCount;
+    }
+
+    public void setFragmentsCount(int fragmentsCount) {
+        this.fragmentsCount = fragmentsCount;
+    }
+
+    public boolean isEmpty() {
+        return recoverableChains.isEmpty() && blocksToQuarantine.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "fragments: " + fragmentsCount + ", recoverable patches: " + recoverableChains.size()
+                + ", blocks to quarantine: " + blocksToQuarantine.cardinality()
+                + ", orphaned blocks: " + orphanedBlocks.cardinality()
+                + ", cross-linked blocks: " + crossLinkedBlocks.cardinality();
+    }
+
+}
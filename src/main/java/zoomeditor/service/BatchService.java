@@ -0,0 +1,230 @@
+package main.java.zoomeditor.service;
+
+import main.java.ZoomFirmwareEditor;
+import main.java.zoomeditor.model.BatchResult;
+import main.java.zoomeditor.model.Firmware;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies the same edits to many firmware files in parallel.
+ * Services keep no per-firmware state, so they are shared between workers; every firmware object is used
+ * by one worker only.
+ */
+public class BatchService {
+    private static volatile BatchService instance = null;
+    private static final Logger log = Logger.getLogger(BatchService.class.getName());
+    private static final String FIRMWARE_FILE_EXTENSION = ".exe";
+    private static final int MEMORY_UNIT = 1024; // memory budget is counted in kilobytes
+
+    private BatchService() {
+    }
+
+    public static BatchService getInstance() {
+        if (instance == null) {
+            synchronized (BatchService.class) {
+                if (instance == null) {
+                    instance = new BatchService();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Edit, that is applied to every firmware.
+     */
+    public interface FirmwareEdit {
+        void apply(Firmware firm) throws Exception;
+    }
+
+    /**
+     * Collects firmware files: files are taken as is, directories are scanned for "exe" files.
+     * A file, that is given several times (for example, as a file and as a part of the directory), is taken once.
+     *
+     * @param files files and directories
+     * @return firmware files
+     */
+    public List<File> collectFirmwareFiles(List<File> files) {
+        List<File> firmwareFiles = new ArrayList<>();
+        Set<Path> paths = new HashSet<>();
+        for (File file : files) {
+            List<File> candidates = new ArrayList<>();
+            if (file.isDirectory()) {
+                File[] children = file.listFiles((dir, name) -> name.toLowerCase().endsWith(FIRMWARE_FILE_EXTENSION));
+                if (children != null) {
+                    Arrays.sort(children);
+                    candidates.addAll(Arrays.asList(children));
+                }
+            } else {
+                candidates.add(file);
+            }
+            for (File candidate : candidates) {
+                if (paths.add(candidate.toPath().toAbsolutePath().normalize())) {
+                    firmwareFiles.add(candidate);
+                }
+            }
+        }
+        return firmwareFiles;
+    }
+
+    /**
+     * Opens, edits and saves every firmware file. Files are processed in parallel by a bounded number of workers,
+     * and memory usage of all workers is limited by the "batchMemoryLimit" setting.
+     * Failure of one file does not stop processing of other files.
+     * Files, which output paths collide (files with the same name from different directories), are not processed
+     * and are reported as failed, so two workers never write the same output file.
+     *
+     * @param firmwareFiles firmware files
+     * @param outputDir     directory, where modified files are saved (with the same file names)
+     * @param edit          edit to apply
+     * @return results in the same order as files
+     */
+    public List<BatchResult> process(List<File> firmwareFiles, Path outputDir, FirmwareEdit edit) {
+        int threads = Math.max(1, Math.min(getThreadsCount(), firmwareFiles.size()));
+        int memoryLimit = getMemoryLimit();
+        Semaphore memory = new Semaphore(memoryLimit);
+        log.info("Batch processing of " + firmwareFiles.size() + " files, threads: " + threads
+                + ", memory limit: " + memoryLimit / MEMORY_UNIT + " MB");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<BatchResult> results = new ArrayList<>();
+        try {
+            Set<String> collidingOutputKeys = findCollidingOutputKeys(firmwareFiles, outputDir);
+            List<Future<BatchResult>> futures = new ArrayList<>();
+            for (File firmwareFile : firmwareFiles) {
+                Path outputPath = outputDir.resolve(firmwareFile.getName());
+                if (collidingOutputKeys.contains(getOutputKey(outputPath))) {
+                    BatchResult result = new BatchResult(firmwareFile);
+                    result.setMessage("Output file is the same for several firmware files: " + outputPath);
+                    log.severe("Batch: " + result);
+                    futures.add(CompletableFuture.completedFuture(result));
+                    continue;
+                }
+                // whole BIN may be copied into heap (patch contents and modified blocks), so file size is taken twice
+                int weight = (int) Math.min(memoryLimit, 2 * firmwareFile.length() / MEMORY_UNIT + 1);
+                futures.add(executor.submit(() -> {
+                    memory.acquireUninterruptibly(weight);
+                    try {
+                        return processFile(firmwareFile, outputPath, edit);
+                    } finally {
+                        memory.release(weight);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    log.log(Level.SEVERE, firmwareFiles.get(i).getName() + ": " + cause, cause);
+                    BatchResult result = new BatchResult(firmwareFiles.get(i));
+                    result.setMessage(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+                    results.add(result);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Batch processing is interrupted!");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Finds output paths, that are taken by more than one firmware file.
+     *
+     * @param firmwareFiles firmware files
+     * @param outputDir     output directory
+     * @return keys of colliding output paths (see {@link #getOutputKey(Path)})
+     */
+    private Set<String> findCollidingOutputKeys(List<File> firmwareFiles, Path outputDir) {
+        Set<String> keys = new HashSet<>();
+        Set<String> collidingKeys = new HashSet<>();
+        for (File firmwareFile : firmwareFiles) {
+            String key = getOutputKey(outputDir.resolve(firmwareFile.getName()));
+            if (!keys.add(key)) {
+                collidingKeys.add(key);
+            }
+        }
+        return collidingKeys;
+    }
+
+    /**
+     * Returns the key of the output path. Case is ignored, because file names on Windows and macOS are
+     * not case-sensitive.
+     *
+     * @param outputPath output path
+     * @return path key
+     */
+    private String getOutputKey(Path outputPath) {
+        return outputPath.toAbsolutePath().normalize().toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Opens, edits and saves one firmware file.
+     *
+     * @param firmwareFile firmware file
+     * @param outputPath   path of modified file
+     * @param edit         edit to apply
+     * @return result
+     */
+    private BatchResult processFile(File firmwareFile, Path outputPath, FirmwareEdit edit) {
+        BatchResult result = new BatchResult(firmwareFile);
+        long start = System.nanoTime();
+        try {
+            FirmwareService firmwareService = FirmwareService.getInstance();
+            Firmware firm = firmwareService.initFirmware(firmwareFile);
+            edit.apply(firm);
+            Files.createDirectories(outputPath.toAbsolutePath().getParent());
+            if (firmwareService.saveModifiedFirmwareFile(firm, outputPath)) {
+                result.setOutputFile(outputPath.toFile());
+                result.setSuccess(true);
+            } else {
+                result.setMessage(ZoomFirmwareEditor.getMessage("firmwareSaveError"));
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, firmwareFile.getName() + ": " + e.getMessage(), e);
+            result.setMessage(e.getMessage());
+        }
+        result.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        log.info("Batch: " + result);
+        return result;
+    }
+
+    private int getThreadsCount() {
+        try {
+            return Integer.parseInt(ZoomFirmwareEditor.getProperty("batchThreads"));
+        } catch (NumberFormatException e) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    private int getMemoryLimit() {
+        long limitMegabytes;
+        try {
+            limitMegabytes = Long.parseLong(ZoomFirmwareEditor.getProperty("batchMemoryLimit"));
+        } catch (NumberFormatException e) {
+            limitMegabytes = Runtime.getRuntime().maxMemory() / 2 / MEMORY_UNIT / MEMORY_UNIT;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, limitMegabytes) * MEMORY_UNIT);
+    }
+
+}
@@ -0,0 +1,237 @@
+package main.java.zoomeditor.service;
+
+import main.java.zoomeditor.model.BlockAllocator;
+import main.java.zoomeditor.model.CatalogueEntry;
+import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.FirmwareCatalogue;
+import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.model.PatchContentView;
+import main.java.zoomeditor.util.IndexFileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Catalogues a directory of firmware files: BIN blocks count and the patch list of every firmware.
+ * Only the BIN header, the file table and the first block of every patch (for the patch name) are read,
+ * block chains are not walked and patch content is not copied, so memory usage does not depend on firmware size.
+ * Catalogue is stored in the cache directory, only new and changed files (by size and modification time)
+ * are scanned again. Files are scanned in parallel.
+ */
+public class CatalogueService {
+    private static volatile CatalogueService instance = null;
+    private static final Logger log = Logger.getLogger(CatalogueService.class.getName());
+    private static final int MAGIC = 0x5A464547; // "ZFEG"
+    private static final int VERSION = 2;
+
+    private CatalogueService() {
+    }
+
+    public static CatalogueService getInstance() {
+        if (instance == null) {
+            synchronized (CatalogueService.class) {
+                if (instance == null) {
+                    instance = new CatalogueService();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Catalogues the firmware directory and updates the stored catalogue.
+     * Files, that cannot be scanned, are logged and skipped.
+     *
+     * @param root firmware directory
+     * @return catalogue
+     * @throws IOException if the directory cannot be read
+     */
+    public FirmwareCatalogue indexCatalogue(Path root) throws IOException {
+        long start = System.nanoTime();
+        Path absoluteRoot = root.toAbsolutePath().normalize();
+        if (!Files.isDirectory(absoluteRoot)) {
+            throw new IOException("Directory is not found: " + absoluteRoot);
+        }
+        Map<String, CatalogueEntry> storedEntries = readCatalogue(absoluteRoot);
+
+        List<CatalogueEntry> entries = new ArrayList<>();
+        List<File> changedFiles = new ArrayList<>();
+        for (File file : BatchService.getInstance().collectFirmwareFiles(Collections.singletonList(absoluteRoot.toFile()))) {
+            CatalogueEntry entry = storedEntries.get(file.getPath());
+            if (entry != null && entry.isUpToDate()) {
+                entries.add(entry);
+            } else {
+                changedFiles.add(file);
+            }
+        }
+        entries.addAll(changedFiles.parallelStream().map(this::scanFile).filter(entry -> entry != null)
+                .collect(Collectors.toList()));
+        entries.sort(Comparator.comparing(entry -> entry.getFile().getPath()));
+
+        writeCatalogue(absoluteRoot, entries);
+        log.info("Catalogue " + absoluteRoot + ": " + entries.size() + " files, scanned: " + changedFiles.size()
+                + ", " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return new FirmwareCatalogue(absoluteRoot, entries, changedFiles.size());
+    }
+
+    /**
+     * Reads metadata of the firmware file: locates the BIN and decodes the file table.
+     *
+     * @param file firmware file
+     * @return entry or null, if file cannot be scanned
+     */
+    private CatalogueEntry scanFile(File file) {
+        Firmware firm = new Firmware(file);
+        try {
+            long lastModified = file.lastModified(); // taken before reading, so later changes are detected
+            long size = file.length();
+            FirmwareService.getInstance().mapBinImage(firm, null);
+            if (!FileTableService.getInstance().fillFileTable(firm)) {
+                log.warning("File table is not found, file is not catalogued: " + file);
+                return null;
+            }
+            List<Patch> items = FileTableService.getInstance().readLoadableFileTableItems(firm);
+            String[] fileNames = new String[items.size()];
+            String[] names = new String[items.size()];
+            int[] sizes = new int[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                Patch patch = items.get(i);
+                fileNames[i] = patch.getFileName();
+                names[i] = readNameFromFirstBlock(firm, patch);
+                sizes[i] = patch.getSize();
+            }
+            return new CatalogueEntry(file, lastModified, size, firm.getBinBlocksCount(), fileNames, names, sizes);
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Firmware scan error, file is not catalogued: " + file, e);
+            return null;
+        } finally {
+            if (firm.getImage() != null) {
+                firm.getImage().release(); // files are not kept mapped (and locked on Windows) till GC
+            }
+        }
+    }
+
+    /**
+     * Extracts the patch name from the first block of the patch. Chain is not walked,
+     * so name is not found, if it does not fit into the first block (same limit as for the quick name search).
+     *
+     * @param firm  firmware with file table
+     * @param patch file table item
+     * @return patch name or null
+     */
+    private String readNameFromFirstBlock(Firmware firm, Patch patch) {
+        int blocksCount = firm.getBinBlocksCount() - Firmware.FIRST_DATA_BLOCK;
+        int address = patch.getAddress();
+        if (address <= BlockAllocator.RESERVED_BLOCK || address >= blocksCount) {
+            return null;
+        }
+        int dataSize = firm.getDataRegion().getUnsignedShort(Firmware.BLOCK_SIZE * address + Firmware.BLOCK_SIZE_OFFSET);
+        if (dataSize > Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE) {
+            return null;
+        }
+        patch.setContentView(new PatchContentView(firm.getDataRegion(), new int[]{address},
+                Math.min(dataSize, patch.getSize())));
+        try {
+            return patch.extractNameFromContent();
+        } catch (RuntimeException e) {
+            // name end is not inside the first block: only the name of this patch is lost, not the whole entry
+            log.log(Level.FINE, patch.getFileName() + ": name is not found in the first block", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the stored catalogue of the directory.
+     *
+     * @param root absolute firmware directory
+     * @return file path -> entry (empty, if catalogue is not found or cannot be read)
+     */
+    private Map<String, CatalogueEntry> readCatalogue(Path root) {
+        Path cataloguePath = getCataloguePath(root);
+        try {
+            Map<String, CatalogueEntry> entries = IndexFileUtils.read(cataloguePath, MAGIC, VERSION, in -> {
+                if (!root.toString().equals(in.readUTF())
+                        || FileTableService.getInstance().isExcludeSequenceFiles() != in.readBoolean()) {
+                    return null; // patch lists depend on the setting
+                }
+                Map<String, CatalogueEntry> storedEntries = new HashMap<>();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    File file = new File(in.readUTF());
+                    long lastModified = in.readLong();
+                    long size = in.readLong();
+                    int binBlocksCount = in.readUnsignedShort();
+                    int patchesCount = in.readUnsignedShort();
+                    String[] fileNames = new String[patchesCount];
+                    String[] names = new String[patchesCount];
+                    int[] sizes = new int[patchesCount];
+                    for (int j = 0; j < patchesCount; j++) {
+                        fileNames[j] = in.readUTF();
+                        names[j] = in.readBoolean() ? in.readUTF() : null;
+                        sizes[j] = in.readInt();
+                    }
+                    storedEntries.put(file.getPath(), new CatalogueEntry(file, lastModified, size, binBlocksCount,
+                            fileNames, names, sizes));
+                }
+                return storedEntries;
+            });
+            if (entries != null) {
+                return entries;
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Catalogue read error: " + cataloguePath, e);
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * Stores the catalogue of the directory. Errors are logged and ignored.
+     *
+     * @param root    absolute firmware directory
+     * @param entries entries
+     */
+    private void writeCatalogue(Path root, List<CatalogueEntry> entries) {
+        Path cataloguePath = getCataloguePath(root);
+        try {
+            IndexFileUtils.write(cataloguePath, MAGIC, VERSION, out -> {
+                out.writeUTF(root.toString());
+                out.writeBoolean(FileTableService.getInstance().isExcludeSequenceFiles());
+                out.writeInt(entries.size());
+                for (CatalogueEntry entry : entries) {
+                    out.writeUTF(entry.getFile().getPath());
+                    out.writeLong(entry.getLastModified());
+                    out.writeLong(entry.getSize());
+                    out.writeShort(entry.getBinBlocksCount());
+                    out.writeShort(entry.getPatchesCount());
+                    for (int i = 0; i < entry.getPatchesCount(); i++) {
+                        out.writeUTF(entry.getPatchFileName(i));
+                        out.writeBoolean(entry.getPatchName(i) != null);
+                        if (entry.getPatchName(i) != null) {
+                            out.writeUTF(entry.getPatchName(i));
+                        }
+                        out.writeInt(entry.getPatchSize(i));
+                    }
+                }
+            });
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Catalogue write error: " + cataloguePath, e);
+        }
+    }
+
+    private Path getCataloguePath(Path root) {
+        return ParseCacheService.getInstance().getCacheDirectory()
+                .resolve(String.format("catalogue-%08x.index", root.toString().hashCode()));
+    }
+
+}
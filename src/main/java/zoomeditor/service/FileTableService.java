@@ -1,24 +1,40 @@
 package main.java.zoomeditor.service;
 
 import main.java.ZoomFirmwareEditor;
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.AllocationPolicy;
+import main.java.zoomeditor.model.BlockAllocator;
+import main.java.zoomeditor.model.BlockHeaderIndex;
+import main.java.zoomeditor.model.BlockOwnerTable;
 import main.java.zoomeditor.model.FileTable;
+import main.java.zoomeditor.model.IntegrityError;
 import main.java.zoomeditor.model.Firmware;
 import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.model.PatchContentView;
+import main.java.zoomeditor.model.PatchRegistry;
 import main.java.zoomeditor.util.ArrayUtils;
-import main.java.zoomeditor.util.ByteUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
-class FileTableService {
+public class FileTableService {
     private static volatile FileTableService instance = null;
     private static final Logger log = Logger.getLogger(FileTableService.class.getName());
 
     private FileTableService() {
     }
 
-    static FileTableService getInstance() {
+    public static FileTableService getInstance() {
         if (instance == null) {
             synchronized (FileTableService.class) {
                 if (instance == null) {
@@ -39,13 +55,13 @@ class FileTableService {
         FileTable fileTable = new FileTable();
         fileTable.setFileTablePosition(-1);
         int possiblePosition = -1;
-        for (int i = 0; i < 4; i++) {
-            int position = Firmware.BLOCK_SIZE * (3 + i * 2);
+        for (int i = 0; i < Firmware.FILE_TABLES_COUNT; i++) {
+            int position = Firmware.BLOCK_SIZE * (Firmware.FIRST_FILE_TABLE_BLOCK + i * 2);
 
             if (isValidFileTablePosition(firm, position)) {
                 // Assume that true file table is that one, which 5th byte is "FF"
                 // (other possible solutions: table with MAX first byte; table with MAX third byte).
-                if (firm.getSystemBytes()[position + 4] == (byte) 0xFF) {
+                if (firm.getSystemRegion().get(position + 4) == (byte) 0xFF) {
                     // main table position
                     log.info("Main file table (0-3): " + i + ", position: " + position);
                     fileTable.setFileTablePosition(position);
@@ -77,154 +93,370 @@ class FileTableService {
      * @return true, if position is valid
      */
     private boolean isValidFileTablePosition(Firmware firm, int position) {
-        return firm.getSystemBytes()[position + 1] == (byte) 0xA5 && firm.getSystemBytes()[position + 5] == (byte) 0xFF;
+        return firm.getSystemRegion().get(position + 1) == (byte) 0xA5 && firm.getSystemRegion().get(position + 5) == (byte) 0xFF;
     }
 
     /**
-     * Fills the patch list and blocks array using firmware's file table.
+     * Fills the patch list and block ownership table using firmware's file table.
      *
      * @param firm firmware
      */
-    void fillPatchesAndBlocks(Firmware firm) {
-        // prepare block allocation array
-        String[] blocks = new String[firm.getBinBlocksCount() - Firmware.FIRST_DATA_BLOCK];
-        blocks[0] = "RESERVED (part of file table)";
-        firm.setBlocks(blocks);
-        firm.setPatches(new ArrayList<>());
-
-        // fill patch list and blocks array
+    public void fillPatchesAndBlocks(Firmware firm) {
+        fillPatchesAndBlocks(firm, FirmwareService.LoadListener.NONE);
+    }
+
+    /**
+     * Fills the patch list and block ownership table using firmware's file table.
+     * Block chains are independent, so they are walked in parallel (on the common fork-join pool),
+     * then block ownership is merged in the file table order.
+     * Patches with broken or cross-linked chains (and repeated file names) are not loaded, problems are stored
+     * as firmware's integrity errors. Walked blocks of such chains, that belong to nobody, are quarantined,
+     * so they are not overwritten.
+     *
+     * @param firm     firmware
+     * @param listener loading listener
+     * @throws CancellationException if loading is cancelled by the listener
+     */
+    public void fillPatchesAndBlocks(Firmware firm, FirmwareService.LoadListener listener) {
+        // prepare block ownership table and allocation bitmap
+        int blocksCount = firm.getBinBlocksCount() - Firmware.FIRST_DATA_BLOCK;
+        firm.setBlockOwners(new BlockOwnerTable(blocksCount));
+        firm.setBlockAllocator(new BlockAllocator(blocksCount,
+                AllocationPolicy.fromName(ZoomFirmwareEditor.getProperty("allocationPolicy"))));
+        firm.setPatches(new PatchRegistry());
+        firm.setIntegrityErrors(new ArrayList<>());
+        firm.setQuarantinedBlocks(new BitSet());
+        firm.setBlockHeaders(BlockHeaderIndex.build(firm.getDataRegion(), blocksCount));
+
+        FirmwareEvents.FileTableDecode decodeEvent = FlightRecorderSupport.events().fileTableDecode();
+        List<Patch> items = readLoadableFileTableItems(firm);
+        decodeEvent.report(firm, items.size());
+        listener.fileTableDecoded(items);
+        List<BlockChain> chains = items.parallelStream()
+                .map(patch -> {
+                    if (listener.isCancelled()) {
+                        throw new CancellationException("Firmware loading is cancelled");
+                    }
+                    FirmwareEvents.ChainWalk walkEvent = FlightRecorderSupport.events().chainWalk();
+                    BlockChain chain = walkChain(firm, patch);
+                    if (chain.error == null) {
+                        try {
+                            patch.setName(patch.extractNameFromContent());
+                        } catch (Exception e) {
+                            log.log(Level.SEVERE, patch.getFileName() + " content getting error: " + e.getMessage(), e);
+                        }
+                    }
+                    walkEvent.report(patch, chain.error);
+                    listener.chainWalked(patch);
+                    return chain;
+                })
+                .collect(Collectors.toList());
+
+        // merge block ownership (chains are in the file table order)
+        for (BlockChain chain : chains) {
+            if (chain.error == null && firm.getPatches().contains(chain.patch.getFileName())) {
+                chain.error = new IntegrityError(chain.patch, chain.patch.getAddress(),
+                        "file name is already used by other file table item");
+            }
+            if (chain.error == null) {
+                chain.error = findCrossLinkedBlock(firm, chain);
+            }
+            if (chain.error != null) {
+                log.severe(chain.error.toString());
+                chain.error.setPosition(firm.getPatches().size());
+                firm.getIntegrityErrors().add(chain.error);
+                chain.patch.setContentView(null);
+                continue;
+            }
+            Patch patch = chain.patch;
+            patch.setId(firm.getBlockOwners().register(patch.getFileName()));
+            for (int i = 0; i < chain.blocksCount; i++) {
+                firm.getBlockAllocator().markUsed(chain.blocks[i]);
+                firm.getBlockOwners().assign(chain.blocks[i], patch.getId());
+            }
+            firm.getPatches().add(patch);
+        }
+
+        // file table items of not loaded patches are kept, so their blocks are kept out of allocation
+        for (BlockChain chain : chains) {
+            if (chain.error == null) {
+                continue;
+            }
+            for (int i = 0; i < chain.blocksCount; i++) {
+                int address = chain.blocks[i];
+                if (!firm.getBlockAllocator().isUsed(address)) {
+                    firm.getBlockAllocator().markUsed(address);
+                    firm.getQuarantinedBlocks().set(address);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks, that none of the chain's blocks is already owned by other patch.
+     *
+     * @param firm  firmware with merged ownership of previous chains
+     * @param chain walked chain
+     * @return cross-link error or null
+     */
+    private IntegrityError findCrossLinkedBlock(Firmware firm, BlockChain chain) {
+        for (int i = 0; i < chain.blocksCount; i++) {
+            int address = chain.blocks[i];
+            if (firm.getBlockAllocator().isUsed(address)) {
+                return new IntegrityError(chain.patch, address,
+                        "block is cross-linked with " + firm.getBlockOwners().getOwnerFileName(address));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes all non-empty items of the firmware's file table. Patch content is not filled.
+     *
+     * @param firm firmware with filled file table
+     * @return patches in the file table order
+     */
+    List<Patch> readFileTableItems(Firmware firm) {
+        List<Patch> items = new ArrayList<>();
         for (int itemPointer = firm.getFileTable().getFileTablePosition() + FileTable.SYSTEM_DATA_SIZE;
-             itemPointer < firm.getFileTable().getFileTablePosition() + Firmware.BLOCK_SIZE * 2;
+             itemPointer + FileTable.ITEM_SIZE <= firm.getFileTable().getFileTablePosition() + Firmware.BLOCK_SIZE * 2;
              itemPointer = itemPointer + FileTable.ITEM_SIZE) {
             //log.info("*** Patch pointer: " + itemPointer + " ***");
 
-            Patch patch = PatchService.makePatchFromFileTableItem(ArrayUtils.copyPart(firm.getSystemBytes(),
-                    itemPointer, FileTable.ITEM_SIZE));
+            Patch patch = PatchService.makePatchFromFileTableItem(firm.getSystemRegion().copy(itemPointer,
+                    FileTable.ITEM_SIZE));
             if (patch != null && patch.getFileName() != null && !patch.getFileName().isEmpty()) {
-                if ("true".equalsIgnoreCase(ZoomFirmwareEditor.getProperty("excludeSequenceFiles"))
-                        && Firmware.EXCLUDE_FILENAMES.contains(patch.getFileName())) {
-                    continue;
-                }
+                items.add(patch);
+            }
+        }
+        return items;
+    }
 
-                try {
-                    boolean isSuccess = fillPatchContent(firm, patch);
-                    if (!isSuccess) {
-                        FileTableService.getInstance().clearBlocksFromFilename(firm, patch.getFileName());
-                    }
-                    patch.setName(patch.extractNameFromContent());
-                    //log.info(patch.getInfo());
-                } catch (Exception e) {
-                    log.log(Level.SEVERE, patch.getFileName() + " content getting error: " + e.getMessage(), e);
-                }
+    /**
+     * Decodes the items of the firmware's file table, that are loaded as patches:
+     * sequence files are skipped, if "excludeSequenceFiles" property is set.
+     *
+     * @param firm firmware with filled file table
+     * @return patches in the file table order
+     */
+    List<Patch> readLoadableFileTableItems(Firmware firm) {
+        boolean excludeSequenceFiles = isExcludeSequenceFiles();
+        return readFileTableItems(firm).stream()
+                .filter(patch -> !excludeSequenceFiles || !Firmware.EXCLUDE_FILENAMES.contains(patch.getFileName()))
+                .collect(Collectors.toList());
+    }
 
-                if (patch.getContent() != null
-                        && !FirmwareService.getInstance().getPatchNames(firm).contains(patch.getFileName())) {
-                    //log.info(patch.getFileName() + " has been added to the list.");
-                    firm.getPatches().add(patch);
+    /**
+     * @return true, if sequence files are not loaded as patches
+     */
+    boolean isExcludeSequenceFiles() {
+        return "true".equalsIgnoreCase(ZoomFirmwareEditor.getProperty("excludeSequenceFiles"));
+    }
+
+    /**
+     * Verifies the saved firmware: parses its file table and walks the block chains of touched patches.
+     * Content of every walked chain is compared with the content of the expected patch.
+     *
+     * @param saved            saved firmware (BIN position and blocks count should be set)
+     * @param expectedPatches  patches, that saved file table should contain (in the same order)
+     * @param touchedFileNames file names of patches, which chains should be walked
+     * @return true, if saved firmware is valid
+     */
+    boolean verifyFileTableAndChains(Firmware saved, List<Patch> expectedPatches, Set<String> touchedFileNames) {
+        if (!fillFileTable(saved)) {
+            log.severe("Verification: file table is not found!");
+            return false;
+        }
+        List<Patch> items = readFileTableItems(saved);
+        if (items.size() != expectedPatches.size()) {
+            log.severe("Verification: file table contains " + items.size() + " items instead of "
+                    + expectedPatches.size());
+            return false;
+        }
+
+        saved.setBlockHeaders(BlockHeaderIndex.build(saved.getDataRegion(),
+                saved.getBinBlocksCount() - Firmware.FIRST_DATA_BLOCK));
+        for (int i = 0; i < items.size(); i++) {
+            Patch item = items.get(i);
+            Patch expected = expectedPatches.get(i);
+            if (!item.getFileName().equals(expected.getFileName()) || item.getSize() != expected.getSize()) {
+                log.severe("Verification: file table item mismatch: " + item.getFileName()
+                        + " VS " + expected.getFileName());
+                return false;
+            }
+            if (touchedFileNames.contains(item.getFileName())) {
+                BlockChain chain = walkChain(saved, item);
+                if (chain.error != null) {
+                    log.severe("Verification: broken block chain of " + chain.error);
+                    return false;
+                }
+                if (!Arrays.equals(item.getContent(), expected.getContent())) {
+                    log.severe("Verification: invalid content of " + item.getFileName());
+                    return false;
                 }
             }
         }
+        return true;
     }
 
     /**
-     * Fills the patch content with bytes extracted from firmware.
-     * At the same time fills the firmware's blocks table with patch name.
+     * Walks the patch's block chain and sets the patch content view over the firmware's blocks (bytes are not copied).
+     * Block headers are taken from the firmware's block header index.
+     * Only the patch and the returned chain are modified, so different chains can be walked concurrently.
      *
-     * @param firm  firmware
+     * @param firm  firmware with block header index
      * @param patch patch, which content should be filled
-     * @return true, if content is successfully filled
+     * @return walked chain (with error, if chain is broken)
      */
-    private boolean fillPatchContent(Firmware firm, Patch patch) {
-        byte[] content = new byte[patch.getSize()];
-        int emptyAddress = ByteUtils.bytesToUnsignedShortAsInt(ByteUtils.hexStringToByteArray("FFFF"));
-        int previousAddress = emptyAddress;
+    private BlockChain walkChain(Firmware firm, Patch patch) {
+        BlockHeaderIndex headers = firm.getBlockHeaders();
+        int blocksCount = headers.length();
+        BlockChain chain = new BlockChain(patch);
+        int previousAddress = Firmware.EMPTY_ADDRESS;
         int address = patch.getAddress();
-        int blockStartPos = Firmware.BLOCK_SIZE * address;
-        firm.getBlocks()[address] = patch.getFileName();
         int currentSize = 0;
 
         while (true) {
-            int dataSize = ByteUtils.bytesToUnsignedShortAsInt(ArrayUtils.copyPart(firm.getDataBytes(),
-                    blockStartPos + Firmware.BLOCK_SIZE_OFFSET, Firmware.BLOCK_SIZE_SIZE));
-            System.arraycopy(firm.getDataBytes(), blockStartPos + Firmware.BLOCK_INFO_SIZE,
-                    content, currentSize, dataSize);
+            if (address <= BlockAllocator.RESERVED_BLOCK || address >= blocksCount) {
+                return chain.fail(address, "invalid block address");
+            }
+            if (chain.blocksCount == blocksCount) {
+                return chain.fail(address, "block chain is looped");
+            }
+            chain.add(address);
+            int dataSize = headers.getDataSize(address);
+            if (dataSize > Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE || currentSize + dataSize > patch.getSize()) {
+                return chain.fail(address, "invalid block size: " + dataSize);
+            }
             currentSize = currentSize + dataSize;
 
             // validate block's previous address
-            if (previousAddress != emptyAddress) {
-                byte[] previousAddressBytes = ArrayUtils.copyPart(firm.getDataBytes(),
-                        blockStartPos + Firmware.BLOCK_PREV_ADDR_OFFSET, Firmware.BLOCK_PREV_ADDR_SIZE);
-                int blockPrevAddress = ByteUtils.bytesToUnsignedShortAsInt(previousAddressBytes);
-
+            if (previousAddress != Firmware.EMPTY_ADDRESS) {
+                int blockPrevAddress = headers.getPreviousAddress(address);
                 if (previousAddress != blockPrevAddress) {
-                    log.severe("Address validation error, patch: " + patch.getFileName());
-                    log.severe("current address: " + address);
-                    log.severe("real previous address: " + previousAddress);
-                    log.severe("block previous address: " + blockPrevAddress);
-                    return false;
+                    return chain.fail(address, "address validation error, real previous address: " + previousAddress
+                            + ", block previous address: " + blockPrevAddress);
                 }
             }
 
             previousAddress = address;
-            byte[] nextAddressBytes = ArrayUtils.copyPart(firm.getDataBytes(),
-                    blockStartPos + Firmware.BLOCK_NEXT_ADDR_OFFSET, Firmware.BLOCK_NEXT_ADDR_SIZE);
-            address = ByteUtils.bytesToUnsignedShortAsInt(nextAddressBytes);
-            if (address == emptyAddress) {
+            address = headers.getNextAddress(address);
+            if (address == Firmware.EMPTY_ADDRESS) {
                 // validate size
                 if (currentSize != patch.getSize()) {
-                    log.severe(patch.getFileName() + " has invalid size: " + currentSize + " VS " + patch.getSize());
-                    return false;
+                    return chain.fail(previousAddress, "invalid size: " + currentSize + " VS " + patch.getSize());
                 }
                 break;
             }
+        }
 
-            // next address exists
-            firm.getBlocks()[address] = patch.getFileName();
-            blockStartPos = Firmware.BLOCK_SIZE * address;
+        patch.setContentView(new PatchContentView(firm.getDataRegion(),
+                Arrays.copyOf(chain.blocks, chain.blocksCount), patch.getSize()));
+        return chain;
+    }
+
+    /**
+     * Returns file table items of the patches, that are not loaded because of integrity errors
+     * (including items, which repeat the file name of a loaded patch). Every item is returned once.
+     *
+     * @param firm firmware
+     * @return not loaded file table items
+     */
+    List<Patch> getNotLoadedItems(Firmware firm) {
+        List<Patch> items = new ArrayList<>();
+        Set<Patch> addedItems = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IntegrityError error : firm.getIntegrityErrors()) {
+            // items with the same file name as a loaded patch are kept too (their chains are not loaded)
+            if (firm.getPatches().getByFileName(error.getFileName()) != error.getPatch()
+                    && addedItems.add(error.getPatch())) {
+                items.add(error.getPatch());
+            }
         }
+        return items;
+    }
 
-        patch.setContent(content);
-        return true;
+    /**
+     * Returns the number of items in the rebuilt file table: loaded patches and not loaded items.
+     *
+     * @param firm firmware
+     * @return file table items count
+     */
+    int getFileTableItemsCount(Firmware firm) {
+        return firm.getPatches().size() + getNotLoadedItems(firm).size();
     }
 
     /**
-     * Rebuilds all file tables using patch list data.
+     * Rebuilds all file tables using patch list data. Items of not loaded (damaged) patches are kept at the end,
+     * so their blocks stay quarantined after the firmware is saved and opened again.
      *
      * @param firm firmware
      */
-    void rebuildAllFileTables(Firmware firm) {
+    public void rebuildAllFileTables(Firmware firm) {
+        FirmwareEvents.FileTableRebuild event = FlightRecorderSupport.events().fileTableRebuild();
         byte[] fileTableBytes = ArrayUtils.makeAndFillArray(2 * Firmware.BLOCK_SIZE, (byte) 0xFF);
         int itemPointer = FileTable.SYSTEM_DATA_SIZE;
         for (Patch patch : firm.getPatches()) {
             System.arraycopy(patch.getFileTableItem(), 0, fileTableBytes, itemPointer, FileTable.ITEM_SIZE);
             itemPointer = itemPointer + FileTable.ITEM_SIZE;
         }
+        for (Patch item : getNotLoadedItems(firm)) {
+            System.arraycopy(item.getFileTableItem(), 0, fileTableBytes, itemPointer, FileTable.ITEM_SIZE);
+            itemPointer = itemPointer + FileTable.ITEM_SIZE;
+        }
 
-        for (int i = 0; i < 4; i++) {
-            int position = Firmware.BLOCK_SIZE * (3 + i * 2);
+        int updatedTablesCount = 0;
+        for (int i = 0; i < Firmware.FILE_TABLES_COUNT; i++) {
+            int position = Firmware.BLOCK_SIZE * (Firmware.FIRST_FILE_TABLE_BLOCK + i * 2);
             if (FileTableService.getInstance().isValidFileTablePosition(firm, position)) {
                 log.info("Updating file table nr: " + i + ", position: " + position);
                 // insert new table, but save first 8 bytes
-                System.arraycopy(fileTableBytes, FileTable.SYSTEM_DATA_SIZE, firm.getSystemBytes(),
-                        position + FileTable.SYSTEM_DATA_SIZE,
-                        fileTableBytes.length - FileTable.SYSTEM_DATA_SIZE);
+                firm.getSystemRegion().put(position + FileTable.SYSTEM_DATA_SIZE, fileTableBytes,
+                        FileTable.SYSTEM_DATA_SIZE, fileTableBytes.length - FileTable.SYSTEM_DATA_SIZE);
+                updatedTablesCount++;
             }
         }
+        event.report(firm.getPatches().size(), updatedTablesCount);
     }
 
     /**
-     * Clears firmware's blocks array from given patch name.
+     * Releases the patch's blocks: removes ownership and frees them in the block allocator.
+     * Only the blocks of given patch are touched.
      *
-     * @param firm     firmware
-     * @param fileName filename to remove from blocks
+     * @param firm  firmware
+     * @param patch patch, which blocks should be released
      */
-    void clearBlocksFromFilename(Firmware firm, String fileName) {
-        if (fileName != null) {
-            for (int i = 1; i < firm.getBlocks().length; i++) { // NB! start from 1, blocks[0] is reserved
-                if (fileName.equals(firm.getBlocks()[i])) {
-                    firm.getBlocks()[i] = null;
-                }
+    void releaseBlocks(Firmware firm, Patch patch) {
+        if (patch.getId() != BlockOwnerTable.NO_OWNER) {
+            for (int address : firm.getBlockOwners().release(patch.getId())) {
+                firm.getBlockAllocator().free(address);
             }
+            patch.setId(BlockOwnerTable.NO_OWNER);
+        }
+    }
+
+    /**
+     * Block addresses of one patch in the chain order.
+     */
+    private static class BlockChain {
+        private final Patch patch;
+        private int[] blocks = new int[16];
+        private int blocksCount;
+        private IntegrityError error;
+
+        private BlockChain(Patch patch) {
+            this.patch = patch;
+        }
+
+        private void add(int address) {
+            if (blocksCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blocksCount * 2);
+            }
+            blocks[blocksCount++] = address;
+        }
+
+        private BlockChain fail(int address, String message) {
+            error = new IntegrityError(patch, address, message);
+            return this;
         }
     }
 
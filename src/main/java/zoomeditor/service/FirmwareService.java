@@ -1,26 +1,53 @@
 package main.java.zoomeditor.service;
 
 import main.java.ZoomFirmwareEditor;
+import main.java.zoomeditor.jfr.FirmwareEvents;
+import main.java.zoomeditor.jfr.FlightRecorderSupport;
+import main.java.zoomeditor.model.BlockAllocator;
+import main.java.zoomeditor.model.BlockHeaderIndex;
+import main.java.zoomeditor.model.BlockOwnerTable;
+import main.java.zoomeditor.model.DefragmentationPlan;
 import main.java.zoomeditor.model.FileTable;
 import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.FirmwareImage;
+import main.java.zoomeditor.model.FragmentationReport;
+import main.java.zoomeditor.model.ImageRegion;
+import main.java.zoomeditor.model.ParseCacheEntry;
 import main.java.zoomeditor.model.Patch;
-import main.java.zoomeditor.util.ArrayUtils;
+import main.java.zoomeditor.model.PatchContentView;
+import main.java.zoomeditor.model.PatchRegistry;
 import main.java.zoomeditor.util.ByteUtils;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class FirmwareService {
     private static volatile FirmwareService instance = null;
     private static final Logger log = Logger.getLogger(FirmwareService.class.getName());
+    private static final String SAVE_MODE_ATOMIC = "atomic";
+    private static final String SAVE_MODE_INCREMENTAL = "incremental";
+    private static final String SAVE_MODE_FULL = "full";
 
     private FirmwareService() {
     }
@@ -36,6 +63,41 @@ public class FirmwareService {
         return instance;
     }
 
+    /**
+     * Receives loading progress of the firmware. Methods are called from the loading threads
+     * (chains are walked in parallel, so {@link #chainWalked(Patch)} can be called concurrently).
+     */
+    public interface LoadListener {
+        LoadListener NONE = new LoadListener() {
+        };
+
+        /**
+         * Called when the file table is decoded: file names and sizes of patches are known, names are not.
+         *
+         * @param items patches in the file table order
+         */
+        default void fileTableDecoded(List<Patch> items) {
+        }
+
+        /**
+         * Called when the patch's block chain is walked: name is set, if the chain is valid.
+         * Cross-links between chains are checked after all chains are walked.
+         *
+         * @param patch patch
+         */
+        default void chainWalked(Patch patch) {
+        }
+
+        /**
+         * Checked before every chain walk: loading is stopped with {@link java.util.concurrent.CancellationException}.
+         *
+         * @return true, if loading should be stopped
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
     /**
      * Creates and prepares the the firmware object.
      *
@@ -43,43 +105,90 @@ public class FirmwareService {
      * @return firmware object
      */
     public Firmware initFirmware(File firmwareFile) {
+        return initFirmware(firmwareFile, LoadListener.NONE);
+    }
+
+    /**
+     * Creates and prepares the the firmware object, reporting the progress to the listener.
+     *
+     * @param firmwareFile firmware file
+     * @param listener     loading listener
+     * @return firmware object
+     */
+    public Firmware initFirmware(File firmwareFile, LoadListener listener) {
         log.info("Init firmware: " + firmwareFile);
         Firmware firm = new Firmware(firmwareFile);
         if (firmwareFile == null) {
             throw new RuntimeException("Firmware file is not selected!");
         }
 
-        try {
-            byte[] allBytes = Files.readAllBytes(firm.getFirmwareFile().toPath());
-            int binStartPosition = ByteUtils.indexOf(allBytes, Firmware.BIN_START_PATTERN, 0);
-            if (binStartPosition == -1) {
+        // parsed structure of the same file is reused, if the file has not been changed since it was cached
+        ParseCacheEntry cacheEntry = mapBinImage(firm, ParseCacheService.getInstance().read(firmwareFile));
+        if (cacheEntry != null && ParseCacheService.getInstance().restore(firm, cacheEntry)) {
+            log.info("Firmware structure is taken from the parse cache");
+            listener.fileTableDecoded(firm.getPatches().asList());
+            return firm;
+        }
+        boolean isSuccess = FileTableService.getInstance().fillFileTable(firm);
+        if (!isSuccess) {
+            log.severe("File table is not found!");
+            throw new RuntimeException("File table is not found!");
+        }
+        FileTableService.getInstance().fillPatchesAndBlocks(firm, listener);
+        ParseCacheService.getInstance().store(firm);
+
+        // logBlocksAllocation(firm);
+        return firm;
+    }
+
+    /**
+     * Locates the BIN in the firmware file, reads its blocks count and sets the BIN image.
+     *
+     * @param firm       firmware
+     * @param cacheEntry parse cache entry of the file or null
+     * @return cache entry or null, if the entry's BIN position is not valid anymore
+     */
+    ParseCacheEntry mapBinImage(Firmware firm, ParseCacheEntry cacheEntry) {
+        FirmwareEvents.BinLocate event = FlightRecorderSupport.events().binLocate();
+        // Installer file is mapped, not read: only the pages, that are really used, are loaded into memory.
+        // Mapping stays valid after the channel is closed.
+        MappedByteBuffer fileBuffer = null;
+        try (FileChannel channel = FileChannel.open(firm.getFirmwareFile().toPath(), StandardOpenOption.READ)) {
+            fileBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (cacheEntry != null && !ParseCacheService.getInstance().matchesBinStart(cacheEntry, fileBuffer)) {
+                cacheEntry = null;
+            }
+            int binStartPosition = cacheEntry != null ? cacheEntry.getBinStartPosition()
+                    : Firmware.BIN_START_MATCHER.indexOf(fileBuffer, 0);
+            if (binStartPosition == -1
+                    || binStartPosition + Firmware.BIN_BLOCKS_COUNT_OFFSET + Firmware.BIN_BLOCKS_COUNT_SIZE > fileBuffer.limit()) {
                 log.severe("BIN is not found!");
                 throw new RuntimeException("BIN is not found!");
             }
             firm.setBinStartPosition(binStartPosition);
-            firm.setBinBlocksCount(ByteUtils.bytesToUnsignedShortAsInt(ArrayUtils.copyPart(allBytes,
-                    firm.getBinStartPosition() + Firmware.BIN_BLOCKS_COUNT_OFFSET, Firmware.BIN_BLOCKS_COUNT_SIZE)));
-            firm.setSystemBytes(ArrayUtils.copyPart(allBytes,
-                    firm.getBinStartPosition(), Firmware.BLOCK_SIZE * Firmware.SYS_BLOCKS_COUNT));
-            firm.setDataBytes(ArrayUtils.copyPart(allBytes,
-                    firm.getBinStartPosition() + Firmware.BLOCK_SIZE * Firmware.FIRST_DATA_BLOCK,
-                    Firmware.BLOCK_SIZE * (firm.getBinBlocksCount() - Firmware.FIRST_DATA_BLOCK)));
+            firm.setBinBlocksCount(ByteUtils.getUnsignedShort(fileBuffer, binStartPosition + Firmware.BIN_BLOCKS_COUNT_OFFSET));
+
+            int binSize = Firmware.BLOCK_SIZE * firm.getBinBlocksCount();
+            if (firm.getBinBlocksCount() <= Firmware.SYS_BLOCKS_COUNT || binStartPosition + binSize > fileBuffer.limit()) {
+                log.severe("BIN is truncated!");
+                throw new RuntimeException("BIN is truncated!");
+            }
+            fileBuffer.position(binStartPosition);
+            fileBuffer.limit(binStartPosition + binSize);
+            firm.setImage(new FirmwareImage(fileBuffer));
             log.info("BIN blocks count: " + firm.getBinBlocksCount()
                     + ", BIN size: " + (Firmware.BLOCK_SIZE * firm.getBinBlocksCount()) + " bytes");
+            event.report(firm, cacheEntry != null);
+            return cacheEntry;
         } catch (IOException e) {
             log.log(Level.SEVERE, e.getMessage(), e);
             throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            if (fileBuffer != null) {
+                ByteUtils.unmap(fileBuffer); // file is not a firmware: it is not used anymore
+            }
+            throw e;
         }
-
-        boolean isSuccess = FileTableService.getInstance().fillFileTable(firm);
-        if (!isSuccess) {
-            log.severe("File table is not found!");
-            throw new RuntimeException("File table is not found!");
-        }
-        FileTableService.getInstance().fillPatchesAndBlocks(firm);
-
-        // logBlocksAllocation(firm);
-        return firm;
     }
 
     /**
@@ -89,13 +198,42 @@ public class FirmwareService {
      * @return used blocks count
      */
     public int getUsedBlocksCount(Firmware firm) {
-        int count = 0;
-        for (String block : firm.getBlocks()) {
-            if (block != null) {
-                count++;
+        return firm.getBlockAllocator().getUsedCount(); // without "reserved" first block
+    }
+
+    /**
+     * Collects fragmentation statistics: extents of every patch (in the block chain order) and free space runs.
+     * Can be used to decide, if defragmentation is worth doing.
+     *
+     * @param firm firmware
+     * @return fragmentation report
+     */
+    public FragmentationReport getFragmentationReport(Firmware firm) {
+        FragmentationReport report = new FragmentationReport();
+        int patchBlocks = 0;
+        for (Patch patch : firm.getPatches()) {
+            if (patch.getId() == BlockOwnerTable.NO_OWNER) {
+                report.getPatchExtents().put(patch.getFileName(), 0);
+                continue;
+            }
+            // extents are counted in the chain order: every jump to a non-adjacent block starts a new extent
+            int[] blocks = firm.getBlockOwners().getBlocks(patch.getId());
+            int extents = blocks.length > 0 ? 1 : 0;
+            for (int i = 1; i < blocks.length; i++) {
+                if (blocks[i] != blocks[i - 1] + 1) {
+                    extents++;
+                }
             }
+            report.getPatchExtents().put(patch.getFileName(), extents);
+            patchBlocks += blocks.length;
         }
-        return count - 1; // without "reserved" first block
+        report.setPatchBlocks(patchBlocks);
+        BlockAllocator allocator = firm.getBlockAllocator();
+        report.setUsedBlocks(allocator.getUsedCount());
+        report.setFreeBlocks(allocator.getFreeCount());
+        report.setFreeRunsCount(allocator.getFreeRunsCount());
+        report.setLargestFreeRun(allocator.getLargestFreeRun());
+        return report;
     }
 
     /**
@@ -109,16 +247,12 @@ public class FirmwareService {
     }
 
     /**
-     * Returns a list of patch names.
+     * Checks, if firmware is defragmented before saving ("enableDefragmentation" setting).
      *
-     * @param firm firmware
-     * @return list of natch names
+     * @return true, if defragmentation is enabled
      */
-    ArrayList<String> getPatchNames(Firmware firm) {
-        if (firm.getPatches() == null) {
-            return new ArrayList<>();
-        }
-        return firm.getPatches().stream().map(Patch::getFileName).collect(Collectors.toCollection(ArrayList::new));
+    public boolean isDefragmentationEnabled() {
+        return "true".equalsIgnoreCase(ZoomFirmwareEditor.getProperty("enableDefragmentation"));
     }
 
     /**
@@ -130,125 +264,461 @@ public class FirmwareService {
      */
     public boolean saveModifiedFirmwareFile(Firmware firm, Path filePath) {
         log.info("Saving modified firmware file: " + filePath.getFileName().toString());
+        FirmwareEvents.Save event = FlightRecorderSupport.events().save();
+        String saveMode = ZoomFirmwareEditor.getProperty("saveMode", SAVE_MODE_ATOMIC);
         try {
-            if ("true".equalsIgnoreCase(ZoomFirmwareEditor.getProperty("enableDefragmentation"))) {
+            if (isDefragmentationEnabled()) {
                 defragmentFirmware(firm);
             } else {
                 FileTableService.getInstance().rebuildAllFileTables(firm); // required after moving patches
             }
-            // read unmodified firmware
-            byte[] allBytes = Files.readAllBytes(firm.getFirmwareFile().toPath());
-            // replace bin bytes
-            System.arraycopy(firm.getDataBytes(), 0, allBytes,
-                    firm.getBinStartPosition() + Firmware.BLOCK_SIZE * Firmware.FIRST_DATA_BLOCK, firm.getDataBytes().length);
-            // replace system bytes
-            System.arraycopy(firm.getSystemBytes(), 0, allBytes, firm.getBinStartPosition(), firm.getSystemBytes().length);
-            // save
-            Files.write(filePath, allBytes);
+            switch (saveMode) {
+                case SAVE_MODE_INCREMENTAL:
+                    writeModifiedBlocks(firm, filePath);
+                    break;
+                case SAVE_MODE_FULL:
+                    writeWholeFile(firm, filePath);
+                    break;
+                default:
+                    writeAtomically(firm, filePath);
+            }
             log.info("Success!");
+            event.report(firm, filePath, saveMode, true);
             return true;
         } catch (IOException | ArrayIndexOutOfBoundsException e) {
             log.log(Level.SEVERE, "Failure! " + e.getMessage(), e);
         }
+        event.report(firm, filePath, saveMode, false);
         return false;
     }
 
     /**
-     * Injects a patch into the current firmware.
+     * Writes the firmware into a temporary file next to the target and then renames it over the target,
+     * so the target is never left half-written.
+     * Unchanged parts of the original file (prefix, unmodified BIN blocks, suffix) are transferred
+     * channel-to-channel; only modified BIN blocks are written from memory.
+     * Temporary file is synced and verified before renaming. Saved file keeps permissions and owner of the replaced
+     * target (or gets default permissions, if target is new).
+     *
+     * @param firm     firmware
+     * @param filePath file system path
+     * @throws IOException if an I/O error occurs or saved file is invalid
+     */
+    private void writeAtomically(Firmware firm, Path filePath) throws IOException {
+        Path tempPath = createTempFileNextTo(filePath);
+        try {
+            BitSet modifiedBlocks = firm.getModifiedBlocks();
+            long binStart = firm.getBinStartPosition();
+            long binEnd = binStart + firm.getImage().size();
+            try (FileChannel in = FileChannel.open(firm.getFirmwareFile().toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+                transferFully(in, 0, binStart, out); // installer part before BIN
+                for (int first = 0; first < firm.getBinBlocksCount(); ) {
+                    boolean isModified = modifiedBlocks.get(first);
+                    int end = isModified ? modifiedBlocks.nextClearBit(first) : modifiedBlocks.nextSetBit(first);
+                    if (end < 0 || end > firm.getBinBlocksCount()) {
+                        end = firm.getBinBlocksCount();
+                    }
+                    int position = Firmware.BLOCK_SIZE * first;
+                    int length = Firmware.BLOCK_SIZE * (end - first);
+                    if (isModified) {
+                        byte[] bytes = new byte[length];
+                        firm.getImage().get(position, bytes, 0, length);
+                        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                    } else {
+                        transferFully(in, binStart + position, length, out);
+                    }
+                    first = end;
+                }
+                transferFully(in, binEnd, in.size() - binEnd, out); // installer part after BIN
+                out.force(true);
+            }
+
+            if (!verifySavedFile(firm, tempPath, modifiedBlocks)) {
+                throw new IOException("Saved firmware verification failed!");
+            }
+            if (Files.exists(filePath)) {
+                copyPosixAttributes(filePath, tempPath);
+            }
+            detachIfOverwritten(firm, filePath);
+            try {
+                Files.move(tempPath, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            log.info("Modified blocks: " + modifiedBlocks.cardinality() + ", written from memory: "
+                    + (Firmware.BLOCK_SIZE * modifiedBlocks.cardinality()) + " bytes");
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Creates an empty temporary file in the directory of the target file.
+     * Unlike Files.createTempFile(), file is created with default permissions (umask is applied), not owner-only.
+     *
+     * @param filePath target file
+     * @return temporary file
+     * @throws IOException if an I/O error occurs
+     */
+    private Path createTempFileNextTo(Path filePath) throws IOException {
+        Path targetDir = filePath.toAbsolutePath().getParent();
+        while (true) {
+            Path tempPath = targetDir.resolve("." + filePath.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                return Files.createFile(tempPath);
+            } catch (FileAlreadyExistsException e) {
+                // name is taken, try another one
+            }
+        }
+    }
+
+    /**
+     * Copies POSIX permissions, owner and group of the file (nothing is done on other file systems).
+     * Owner and group are copied only if they differ, failure to change them is logged.
+     *
+     * @param from source file
+     * @param to   target file
+     * @throws IOException if an I/O error occurs
+     */
+    private void copyPosixAttributes(Path from, Path to) throws IOException {
+        PosixFileAttributeView fromView = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        PosixFileAttributeView toView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (fromView == null || toView == null) {
+            return;
+        }
+        PosixFileAttributes fromAttributes = fromView.readAttributes();
+        PosixFileAttributes toAttributes = toView.readAttributes();
+        try {
+            if (!fromAttributes.owner().equals(toAttributes.owner())) {
+                toView.setOwner(fromAttributes.owner());
+            }
+            if (!fromAttributes.group().equals(toAttributes.group())) {
+                toView.setGroup(fromAttributes.group());
+            }
+        } catch (IOException e) {
+            log.warning("Owner of " + from.getFileName() + " cannot be kept: " + e.getMessage());
+        }
+        toView.setPermissions(fromAttributes.permissions()); // after owner change, which may reset setuid bits
+    }
+
+    /**
+     * Verifies the saved firmware file: re-parses its file table and walks the block chains of the patches,
+     * that own modified blocks. Only system blocks and blocks of those patches are read back.
+     *
+     * @param firm           firmware, that has been saved
+     * @param savedPath      saved file
+     * @param modifiedBlocks modified BIN blocks
+     * @return true, if saved file is valid
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean verifySavedFile(Firmware firm, Path savedPath, BitSet modifiedBlocks) throws IOException {
+        BlockOwnerTable owners = firm.getBlockOwners();
+        Set<Integer> touchedIds = new HashSet<>();
+        Set<String> touchedFileNames = new HashSet<>();
+        for (int i = modifiedBlocks.nextSetBit(Firmware.FIRST_DATA_BLOCK + 1); i >= 0; i = modifiedBlocks.nextSetBit(i + 1)) {
+            int id = owners.getOwner(i - Firmware.FIRST_DATA_BLOCK);
+            if (id != BlockOwnerTable.NO_OWNER && touchedIds.add(id)) {
+                touchedFileNames.add(owners.getFileName(id));
+            }
+        }
+
+        ByteBuffer binBytes = ByteBuffer.allocate(firm.getImage().size());
+        try (FileChannel channel = FileChannel.open(savedPath, StandardOpenOption.READ)) {
+            readFully(channel, firm.getBinStartPosition(), binBytes.array(), 0,
+                    Firmware.BLOCK_SIZE * Firmware.SYS_BLOCKS_COUNT);
+            for (int id : touchedIds) {
+                for (int address : owners.getBlocks(id)) {
+                    int position = Firmware.BLOCK_SIZE * (Firmware.FIRST_DATA_BLOCK + address);
+                    readFully(channel, firm.getBinStartPosition() + position, binBytes.array(), position,
+                            Firmware.BLOCK_SIZE);
+                }
+            }
+        }
+        if (Firmware.BIN_START_MATCHER.indexOf(binBytes.array(), 0) != 0) {
+            log.severe("Verification: BIN is not found!");
+            return false;
+        }
+
+        Firmware saved = new Firmware(savedPath.toFile());
+        saved.setBinStartPosition(firm.getBinStartPosition());
+        saved.setBinBlocksCount(firm.getBinBlocksCount());
+        saved.setImage(new FirmwareImage(binBytes));
+        List<Patch> expectedItems = new ArrayList<>(firm.getPatches().asList());
+        expectedItems.addAll(FileTableService.getInstance().getNotLoadedItems(firm));
+        boolean isValid = FileTableService.getInstance().verifyFileTableAndChains(saved, expectedItems, touchedFileNames);
+        log.info("Verified file table and " + touchedFileNames.size() + " block chains: " + (isValid ? "OK" : "FAILED"));
+        return isValid;
+    }
+
+    /**
+     * Transfers bytes from one channel into the current position of another.
+     */
+    private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0) {
+                throw new EOFException("Unexpected end of file: " + position);
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    /**
+     * Reads exactly given number of bytes from the channel position.
+     */
+    private static void readFully(FileChannel channel, long position, byte[] dst, int offset, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dst, offset, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - offset) < 0) {
+                throw new EOFException("Unexpected end of file: " + position);
+            }
+        }
+    }
+
+    /**
+     * Copies the original firmware file once and then writes only the modified BIN blocks into it.
+     * If the file path points to the original file, then copying is skipped.
+     *
+     * @param firm     firmware
+     * @param filePath file system path
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeModifiedBlocks(Firmware firm, Path filePath) throws IOException {
+        Path originalPath = firm.getFirmwareFile().toPath();
+        if (!Files.exists(filePath) || !Files.isSameFile(filePath, originalPath)) {
+            Files.copy(originalPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        BitSet modifiedBlocks = firm.getModifiedBlocks();
+        int writtenBytes = 0;
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.WRITE)) {
+            // adjacent modified blocks are written at once
+            for (int first = modifiedBlocks.nextSetBit(0); first >= 0; ) {
+                int end = modifiedBlocks.nextClearBit(first);
+                int position = Firmware.BLOCK_SIZE * first;
+                byte[] bytes = new byte[Math.min(Firmware.BLOCK_SIZE * end, firm.getImage().size()) - position];
+                firm.getImage().get(position, bytes, 0, bytes.length);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, firm.getBinStartPosition() + position + buffer.position());
+                }
+                writtenBytes += bytes.length;
+                first = modifiedBlocks.nextSetBit(end);
+            }
+        }
+        log.info("Modified blocks: " + modifiedBlocks.cardinality() + ", written: " + writtenBytes + " bytes");
+    }
+
+    /**
+     * Reads the original firmware file, replaces the whole BIN and writes the result.
+     *
+     * @param firm     firmware
+     * @param filePath file system path
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeWholeFile(Firmware firm, Path filePath) throws IOException {
+        // read unmodified firmware
+        byte[] allBytes = Files.readAllBytes(firm.getFirmwareFile().toPath());
+        // replace bin bytes
+        firm.getImage().get(0, allBytes, firm.getBinStartPosition(), firm.getImage().size());
+        detachIfOverwritten(firm, filePath);
+        // save
+        Files.write(filePath, allBytes);
+    }
+
+    /**
+     * Moves the BIN image into the heap and releases the mapping of the opened file, if the file is going to be
+     * replaced (mapped file cannot be replaced or truncated on Windows).
+     *
+     * @param firm     firmware
+     * @param filePath file system path of the saved file
+     * @throws IOException if an I/O error occurs
+     */
+    private void detachIfOverwritten(Firmware firm, Path filePath) throws IOException {
+        if (Files.exists(filePath) && Files.isSameFile(filePath, firm.getFirmwareFile().toPath())
+                && !firm.getImage().detach()) {
+            log.warning("Mapping of " + filePath.getFileName() + " cannot be released, file may stay locked");
+        }
+    }
+
+    /**
+     * Injects a patch into the current firmware. The patch is validated before any block is touched.
      *
      * @param firm             firmware
      * @param patch            patch to inject
      * @param rebuildFileTable run file table rebuilding or not
      */
     public void injectPatch(Firmware firm, Patch patch, boolean rebuildFileTable) {
+        FirmwareEvents.Inject event = FlightRecorderSupport.events().inject();
         int blocksCount = PatchService.calculatePatchBlocksCount(patch.getSize());
         log.info("Injecting file: " + patch.getFileName()
                 + " (" + blocksCount + " blocks) into " + firm.getFirmwareFile().getName());
 
-        if (getUsedBlocksCount(firm) + blocksCount > getTotalBlocksCount(firm)) {
+        if (!firm.getBlockAllocator().canAllocate(blocksCount)) {
             log.severe("Patch injection error: not enough free blocks.");
             throw new RuntimeException(ZoomFirmwareEditor.getMessage("notEnoughFreeBlocksError"));
         }
 
-        if (getPatchNames(firm).contains(patch.getFileName())) {
+        if (firm.getPatches().contains(patch.getFileName())) {
             log.severe("Patch injection error: selected patch is already present in the firmware.");
             throw new RuntimeException(ZoomFirmwareEditor.getMessage("patchIsAlreadyPresentError"));
         }
 
-        // get free block addresses and put address of the first block into the patch's file table item
-        int[] reservedBlocks = new int[blocksCount];
-        for (int i = 0; i < blocksCount; i++) {
-            int address = getFreeBlockAddress(firm);
-            if (address == -1) {
-                log.severe("Patch injection error: free block is not found.");
-                throw new RuntimeException(ZoomFirmwareEditor.getMessage("freeBlockIsNotFoundError")); // that should not happen
+        if ((FileTableService.getInstance().getFileTableItemsCount(firm) + 1) * FileTable.ITEM_SIZE
+                >= Firmware.BLOCK_SIZE * 2) {
+            log.severe("Too many patch files! File table will not fit into 2 blocks!");
+            throw new RuntimeException(ZoomFirmwareEditor.getMessage("tooManyFilesError"));
+        }
+
+        writePatchBlocks(firm, patch, allocatePatchBlocks(firm, patch, blocksCount));
+        firm.getPatches().add(patch);
+
+        if (rebuildFileTable) {
+            FileTableService.getInstance().rebuildAllFileTables(firm);
+        }
+        event.report(Collections.singletonList(patch));
+    }
+
+    /**
+     * Injects several patches into the current firmware at once.
+     * The whole set is validated before any block is touched, so either all patches are injected or none.
+     * File tables are rebuilt only once.
+     *
+     * @param firm    firmware
+     * @param patches patches to inject
+     */
+    public void injectPatches(Firmware firm, List<Patch> patches) {
+        FirmwareEvents.Inject event = FlightRecorderSupport.events().inject();
+        int[] blocksCounts = new int[patches.size()];
+        int totalBlocksCount = 0;
+        Set<String> fileNames = new HashSet<>();
+        for (int i = 0; i < patches.size(); i++) {
+            Patch patch = patches.get(i);
+            if (firm.getPatches().contains(patch.getFileName()) || !fileNames.add(patch.getFileName())) {
+                log.severe("Patch injection error: " + patch.getFileName() + " is already present in the firmware.");
+                throw new RuntimeException(ZoomFirmwareEditor.getMessage("patchIsAlreadyPresentError"));
             }
+            blocksCounts[i] = PatchService.calculatePatchBlocksCount(patch.getSize());
+            totalBlocksCount += blocksCounts[i];
+        }
+        log.info("Injecting " + patches.size() + " files (" + totalBlocksCount + " blocks) into "
+                + firm.getFirmwareFile().getName());
+
+        if (!firm.getBlockAllocator().canAllocate(totalBlocksCount)) {
+            log.severe("Patch injection error: not enough free blocks.");
+            throw new RuntimeException(ZoomFirmwareEditor.getMessage("notEnoughFreeBlocksError"));
+        }
+
+        if ((FileTableService.getInstance().getFileTableItemsCount(firm) + patches.size()) * FileTable.ITEM_SIZE
+                >= Firmware.BLOCK_SIZE * 2) {
+            log.severe("Too many patch files! File table will not fit into 2 blocks!");
+            throw new RuntimeException(ZoomFirmwareEditor.getMessage("tooManyFilesError"));
+        }
+
+        // allocate all blocks first, then write all headers and content
+        int[][] reservedBlocks = new int[patches.size()][];
+        for (int i = 0; i < patches.size(); i++) {
+            reservedBlocks[i] = allocatePatchBlocks(firm, patches.get(i), blocksCounts[i]);
+        }
+        for (int i = 0; i < patches.size(); i++) {
+            writePatchBlocks(firm, patches.get(i), reservedBlocks[i]);
+            firm.getPatches().add(patches.get(i));
+        }
+
+        FileTableService.getInstance().rebuildAllFileTables(firm);
+        event.report(patches);
+    }
+
+    /**
+     * Allocates blocks for the patch, assigns them to the patch and puts the address of the first block
+     * into the patch's file table item.
+     *
+     * @param firm        firmware
+     * @param patch       patch
+     * @param blocksCount blocks count
+     * @return allocated block addresses
+     */
+    private int[] allocatePatchBlocks(Firmware firm, Patch patch, int blocksCount) {
+        FirmwareEvents.BlockAllocation event = FlightRecorderSupport.events().blockAllocation();
+        int[] reservedBlocks = firm.getBlockAllocator().allocate(blocksCount);
+        if (reservedBlocks == null) {
+            log.severe("Patch injection error: free block is not found.");
+            throw new RuntimeException(ZoomFirmwareEditor.getMessage("freeBlockIsNotFoundError")); // that should not happen
+        }
+        patch.setId(firm.getBlockOwners().register(patch.getFileName()));
+        for (int i = 0; i < blocksCount; i++) {
+            int address = reservedBlocks[i];
             if (i == 0) {
-                System.arraycopy(ByteUtils.shortToBytes(Integer.valueOf(address).shortValue()), 0,
-                        patch.getFileTableItem(), Patch.ADDR_OFFSET, Patch.ADDR_SIZE);
+                ByteUtils.putShort(patch.getFileTableItem(), Patch.ADDR_OFFSET, address);
             }
-            reservedBlocks[i] = address;
-            firm.getBlocks()[address] = patch.getFileName();
+            firm.getBlockOwners().assign(address, patch.getId());
         }
+        event.report(patch, reservedBlocks);
+        return reservedBlocks;
+    }
 
-        // insert patch content data into reserved blocks
+    /**
+     * Writes block headers and patch content into reserved blocks.
+     *
+     * @param firm           firmware
+     * @param patch          patch
+     * @param reservedBlocks block addresses in the chain order
+     */
+    private void writePatchBlocks(Firmware firm, Patch patch, int[] reservedBlocks) {
+        byte[] content = patch.getContent();
+        int blocksCount = reservedBlocks.length;
         for (int i = 0; i < blocksCount; i++) {
+            int blockStartPos = Firmware.BLOCK_SIZE * reservedBlocks[i];
+            // previous address is set for all blocks except first
+            int previousAddress = i > 0 ? reservedBlocks[i - 1] : Firmware.EMPTY_ADDRESS;
+            int nextAddress;
             int size;
-            byte[] blockInfoBytes = ArrayUtils.makeAndFillArray(Firmware.BLOCK_INFO_SIZE, (byte) 0xFF);
-            if (i > 0) {
-                // set previous address for all blocks except first
-                byte[] previousAddressBytes = ByteUtils.shortToBytes(Integer.valueOf(reservedBlocks[i - 1]).shortValue());
-                System.arraycopy(previousAddressBytes, 0, blockInfoBytes, Firmware.BLOCK_PREV_ADDR_OFFSET, Firmware.BLOCK_PREV_ADDR_SIZE);
-            }
-
             if (i < blocksCount - 1) {
                 // set next address and maximum data size for all blocks except last
-                byte[] nextAddressBytes = ByteUtils.shortToBytes(Integer.valueOf(reservedBlocks[i + 1]).shortValue());
-                System.arraycopy(nextAddressBytes, 0, blockInfoBytes, Firmware.BLOCK_NEXT_ADDR_OFFSET, Firmware.BLOCK_NEXT_ADDR_SIZE);
+                nextAddress = reservedBlocks[i + 1];
                 size = Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE;
-                byte[] sizeBytes = ByteUtils.shortToBytes(Integer.valueOf(size).shortValue());
-                System.arraycopy(sizeBytes, 0, blockInfoBytes, Firmware.BLOCK_SIZE_OFFSET, Firmware.BLOCK_SIZE_SIZE);
             } else {
                 // set size for the last block
+                nextAddress = Firmware.EMPTY_ADDRESS;
                 size = patch.getSize() % (Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE);
-                byte[] sizeBytes = ByteUtils.shortToBytes(Integer.valueOf(size).shortValue());
-                System.arraycopy(sizeBytes, 0, blockInfoBytes, Firmware.BLOCK_SIZE_OFFSET, Firmware.BLOCK_SIZE_SIZE);
             }
-
-            // inject block into allBytes[]
-            int blockStartPos = Firmware.BLOCK_SIZE * reservedBlocks[i];
-            System.arraycopy(blockInfoBytes, 0, firm.getDataBytes(), blockStartPos, Firmware.BLOCK_INFO_SIZE);
-            System.arraycopy(patch.getContent(), i * (Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE),
-                    firm.getDataBytes(), blockStartPos + Firmware.BLOCK_INFO_SIZE, size);
+            firm.getDataRegion().putShort(blockStartPos + Firmware.BLOCK_PREV_ADDR_OFFSET, previousAddress);
+            firm.getDataRegion().putShort(blockStartPos + Firmware.BLOCK_NEXT_ADDR_OFFSET, nextAddress);
+            firm.getDataRegion().putShort(blockStartPos + Firmware.BLOCK_SIZE_OFFSET, size);
+            firm.getBlockHeaders().set(reservedBlocks[i], previousAddress, nextAddress, size);
+
+            // inject block content into the data region
+            firm.getDataRegion().put(blockStartPos + Firmware.BLOCK_INFO_SIZE, content,
+                    i * (Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE), size);
             if (size < Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE) {
                 // put "FF" until the end of last block
-                System.arraycopy(ArrayUtils.makeAndFillArray(Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE - size, (byte) 0xFF), 0, firm.getDataBytes(),
-                        blockStartPos + Firmware.BLOCK_INFO_SIZE + size, Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE - size);
+                firm.getDataRegion().fill(blockStartPos + Firmware.BLOCK_INFO_SIZE + size,
+                        Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE - size, (byte) 0xFF);
             }
         }
-
-        firm.getPatches().add(patch);
-
-        if (firm.getPatches().size() * FileTable.ITEM_SIZE >= Firmware.BLOCK_SIZE * 2) {
-            log.severe("Too many patch files! File table will not fit into 2 blocks!");
-            throw new RuntimeException(ZoomFirmwareEditor.getMessage("tooManyFilesError"));
-        }
-
-        if (rebuildFileTable) {
-            FileTableService.getInstance().rebuildAllFileTables(firm);
-        }
+        // content is stored in firmware now, so it is not kept in memory twice
+        patch.setContentView(new PatchContentView(firm.getDataRegion(), reservedBlocks, patch.getSize()));
     }
 
     /**
      * Removes selected patches from the firmware.
      */
     public void removePatchFile(Firmware firm, ArrayList<String> filesToRemove) {
+        FirmwareEvents.Remove event = FlightRecorderSupport.events().remove();
         try {
-            firm.getPatches().removeIf(patch -> filesToRemove.contains(patch.getFileName()));
-            for (String fileName : filesToRemove) {
-                FileTableService.getInstance().clearBlocksFromFilename(firm, fileName);
+            List<Patch> removedPatches = firm.getPatches().removeAll(filesToRemove);
+            for (Patch patch : removedPatches) {
+                FileTableService.getInstance().releaseBlocks(firm, patch);
             }
             FileTableService.getInstance().rebuildAllFileTables(firm);
+            event.report(removedPatches);
         } catch (Exception e) {
             log.severe("Patch remove error");
         }
@@ -260,58 +730,260 @@ public class FirmwareService {
      * @param isUp if true, then direction is "up"
      */
     public void movePatchUpOrDown(Firmware firm, String fileName, boolean isUp) {
-        for (int i = 0; i < firm.getPatches().size(); i++) {
-            if (fileName.equals(firm.getPatches().get(i).getFileName())) {
-                if (isUp && i > 0) {
-                    Collections.swap(firm.getPatches(), i, i - 1);
-                    break;
-                } else if (!isUp && i < firm.getPatches().size() - 1) {
-                    Collections.swap(firm.getPatches(), i, i + 1);
-                    break;
+        int i = firm.getPatches().indexOf(fileName);
+        if (i == -1) {
+            return;
+        }
+        if (isUp && i > 0) {
+            firm.getPatches().swap(i, i - 1);
+        } else if (!isUp && i < firm.getPatches().size() - 1) {
+            firm.getPatches().swap(i, i + 1);
+        }
+    }
+
+    /**
+     * Computes block moves for defragmentation: after compaction all used blocks occupy addresses 1..usedCount.
+     * Only blocks above that area are moved (in ascending order) into free blocks inside it (in ascending order),
+     * so the number of moved blocks is minimal. Quarantined blocks are never moved.
+     * The plan also counts block headers, which links change, and blocks above the compacted area,
+     * that are going to be filled with "FF" bytes. Firmware is not changed, so the plan can be shown before
+     * the defragmentation (it is not used, if block chains are cross-linked, see {@link #hasCrossLinkedChains(Firmware)}).
+     *
+     * @param firm firmware
+     * @return defragmentation plan
+     */
+    public DefragmentationPlan planDefragmentation(Firmware firm) {
+        BlockAllocator allocator = firm.getBlockAllocator();
+        int usedCount = allocator.getUsedCount();
+        int blocksCount = firm.getBlockOwners().length();
+        int movesCount = 0;
+        BitSet quarantinedBlocks = firm.getQuarantinedBlocks();
+        for (int address = usedCount + 1; address < blocksCount; address++) {
+            if (allocator.isUsed(address) && !quarantinedBlocks.get(address)) {
+                movesCount++;
+            }
+        }
+        int[] sources = new int[movesCount];
+        int[] targets = new int[movesCount];
+        for (int address = usedCount + 1, i = 0; i < movesCount; address++) {
+            if (allocator.isUsed(address) && !quarantinedBlocks.get(address)) {
+                sources[i++] = address;
+            }
+        }
+        for (int address = 1, i = 0; i < movesCount; address++) {
+            if (!allocator.isUsed(address)) {
+                targets[i++] = address;
+            }
+        }
+        return new DefragmentationPlan(sources, targets, usedCount, countHeadersToRewrite(firm, sources, targets),
+                countBlocksToClear(firm, usedCount + 1));
+    }
+
+    /**
+     * Counts block headers, that {@link #relinkPatchBlocks(Firmware, Patch)} rewrites after the blocks are moved.
+     *
+     * @param firm    firmware
+     * @param sources addresses of blocks to move
+     * @param targets new addresses
+     * @return headers count
+     */
+    private int countHeadersToRewrite(Firmware firm, int[] sources, int[] targets) {
+        if (sources.length == 0) {
+            return 0;
+        }
+        BlockOwnerTable owners = firm.getBlockOwners();
+        BlockHeaderIndex headers = firm.getBlockHeaders();
+        int[] newAddresses = new int[owners.length()];
+        for (int address = 0; address < newAddresses.length; address++) {
+            newAddresses[address] = address;
+        }
+        Set<Integer> movedPatchIds = new HashSet<>();
+        for (int i = 0; i < sources.length; i++) {
+            newAddresses[sources[i]] = targets[i];
+            movedPatchIds.add(owners.getOwner(sources[i]));
+        }
+        int count = 0;
+        for (Patch patch : firm.getPatches()) {
+            if (!movedPatchIds.contains(patch.getId())) {
+                continue;
+            }
+            int[] blocks = owners.getBlocks(patch.getId());
+            for (int i = 0; i < blocks.length; i++) {
+                int previousAddress = i > 0 ? newAddresses[blocks[i - 1]] : Firmware.EMPTY_ADDRESS;
+                int nextAddress = i < blocks.length - 1 ? newAddresses[blocks[i + 1]] : Firmware.EMPTY_ADDRESS;
+                // moved block keeps its old header until it is relinked
+                if (headers.getPreviousAddress(blocks[i]) != previousAddress
+                        || headers.getNextAddress(blocks[i]) != nextAddress) {
+                    count++;
                 }
             }
         }
+        return count;
     }
 
     /**
-     * Finds the address of the first free block.
+     * Counts blocks, that {@link #clearBlocks(Firmware, int)} changes: blocks, that are not quarantined and
+     * not filled with "FF" bytes yet. Blocks, that are going to be moved, are counted too (they are vacated).
+     *
+     * @param firm         firmware
+     * @param firstAddress first block address
+     * @return blocks count
+     */
+    private int countBlocksToClear(Firmware firm, int firstAddress) {
+        int blocksCount = firm.getBlockHeaders().length();
+        BitSet quarantinedBlocks = firm.getQuarantinedBlocks();
+        int count = 0;
+        for (int address = firstAddress; address < blocksCount; address++) {
+            if (!quarantinedBlocks.get(address)
+                    && !firm.getDataRegion().isFilled(Firmware.BLOCK_SIZE * address, Firmware.BLOCK_SIZE, (byte) 0xFF)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks, if block chains of any patches are cross-linked: then defragmentation rewrites all patches
+     * instead of moving blocks according to {@link #planDefragmentation(Firmware)}.
      *
      * @param firm firmware
-     * @return free block number or -1 if free block is not found
+     * @return true, if any block chain is cross-linked
      */
-    private int getFreeBlockAddress(Firmware firm) {
-        String[] blocks = firm.getBlocks();
-        for (int i = 1; i < blocks.length; i++) { // NB! start from 1, blocks[0] is reserved
-            if (blocks[i] == null) {
-                return i;
+    public boolean hasCrossLinkedChains(Firmware firm) {
+        for (Patch patch : firm.getPatches()) {
+            if (patch.getId() != BlockOwnerTable.NO_OWNER && firm.getBlockOwners().isCrossLinked(patch.getId())) {
+                log.warning("Block chain of " + patch.getFileName() + " is cross-linked");
+                return true;
             }
         }
-        return -1;
+        return false;
     }
 
     /**
      * Performs defragmentation/reorganization of firmware's BIN:
      * all patch content blocks are moved into beginning of firmware's data section and remaining BIN space is filled with "FF" bytes.
+     * Blocks are moved according to the minimal plan (see {@link #planDefragmentation(Firmware)}), then
+     * block headers of the moved chains and file table addresses are patched in place.
+     * If block chains are cross-linked, then all patches are rewritten from the scratch.
      *
      * @param firm firmware
+     * @return executed plan
      */
-    private void defragmentFirmware(Firmware firm) {
+    public DefragmentationPlan defragmentFirmware(Firmware firm) {
         log.info("Firmware defragmentation...");
-        byte[] emptyDataBytes = ArrayUtils.makeAndFillArray(firm.getDataBytes().length, (byte) 0xFF);
-        firm.setDataBytes(emptyDataBytes);
-
-        for (int i = 1; i < firm.getBlocks().length; i++) { // NB! start from 1, blocks[0] is reserved
-            firm.getBlocks()[i] = null;
+        FirmwareEvents.Defragment event = FlightRecorderSupport.events().defragment();
+        if (hasCrossLinkedChains(firm)) {
+            log.warning("All patches are rewritten");
+            rewriteAllPatches(firm);
+            DefragmentationPlan plan = new DefragmentationPlan(new int[0], new int[0],
+                    firm.getBlockAllocator().getUsedCount(), 0, 0);
+            event.report(plan, true);
+            return plan;
+        }
+        DefragmentationPlan plan = planDefragmentation(firm);
+        ImageRegion dataRegion = firm.getDataRegion();
+        BlockOwnerTable owners = firm.getBlockOwners();
+        Set<Integer> movedPatchIds = new HashSet<>();
+        byte[] block = new byte[Firmware.BLOCK_SIZE];
+        for (int i = 0; i < plan.getMovesCount(); i++) {
+            int source = plan.getSource(i);
+            int target = plan.getTarget(i);
+            dataRegion.get(Firmware.BLOCK_SIZE * source, block, 0, Firmware.BLOCK_SIZE);
+            dataRegion.put(Firmware.BLOCK_SIZE * target, block);
+            firm.getBlockHeaders().copy(source, target);
+            movedPatchIds.add(owners.getOwner(source));
+            owners.move(source, target);
+            firm.getBlockAllocator().free(source);
+            firm.getBlockAllocator().markUsed(target);
+        }
+        for (Patch patch : firm.getPatches()) {
+            if (movedPatchIds.contains(patch.getId())) {
+                relinkPatchBlocks(firm, patch);
+            }
         }
+        // vacated blocks and the rest of the data section (unchanged "FF" blocks stay untouched)
+        clearBlocks(firm, plan.getUsedBlocksCount() + 1);
+
+        FileTableService.getInstance().rebuildAllFileTables(firm);
+        log.info("Defragmentation: " + plan);
+        event.report(plan, false);
+        return plan;
+    }
 
-        List<Patch> oldPatchList = new ArrayList<>(firm.getPatches());
-        firm.setPatches(new ArrayList<>());
+    /**
+     * Rewrites block headers (previous and next addresses) of the patch's chain after its blocks were moved
+     * (or after the chain was recovered), updates the first block address in the file table item and the content view.
+     *
+     * @param firm  firmware
+     * @param patch patch
+     */
+    void relinkPatchBlocks(Firmware firm, Patch patch) {
+        int[] blocks = firm.getBlockOwners().getBlocks(patch.getId());
+        BlockHeaderIndex headers = firm.getBlockHeaders();
+        for (int i = 0; i < blocks.length; i++) {
+            int previousAddress = i > 0 ? blocks[i - 1] : Firmware.EMPTY_ADDRESS;
+            int nextAddress = i < blocks.length - 1 ? blocks[i + 1] : Firmware.EMPTY_ADDRESS;
+            if (headers.getPreviousAddress(blocks[i]) == previousAddress
+                    && headers.getNextAddress(blocks[i]) == nextAddress) {
+                continue; // block was not moved and its neighbours were not moved too
+            }
+            int blockStartPos = Firmware.BLOCK_SIZE * blocks[i];
+            firm.getDataRegion().putShort(blockStartPos + Firmware.BLOCK_PREV_ADDR_OFFSET, previousAddress);
+            firm.getDataRegion().putShort(blockStartPos + Firmware.BLOCK_NEXT_ADDR_OFFSET, nextAddress);
+            headers.setLinks(blocks[i], previousAddress, nextAddress);
+        }
+        ByteUtils.putShort(patch.getFileTableItem(), Patch.ADDR_OFFSET, blocks[0]);
+        patch.setAddress(blocks[0]);
+        patch.setContentView(new PatchContentView(firm.getDataRegion(), blocks, patch.getSize()));
+    }
 
-        for (Patch patch : oldPatchList) {
-            injectPatch(firm, patch, false);
+    /**
+     * Clears the data section and injects all patches again in the file table order.
+     *
+     * @param firm firmware
+     */
+    private void rewriteAllPatches(Firmware firm) {
+        // patches are going to be moved: their content should be copied out of the blocks before clearing
+        for (Patch patch : firm.getPatches()) {
+            patch.materializeContent();
+        }
+        // NB! First data block is a part of the file table and should not be cleared
+        clearBlocks(firm, 1);
+
+        firm.setBlockOwners(new BlockOwnerTable(firm.getBlockOwners().length()));
+        firm.getBlockAllocator().freeAll();
+        BitSet quarantinedBlocks = firm.getQuarantinedBlocks();
+        for (int address = quarantinedBlocks.nextSetBit(0); address >= 0; address = quarantinedBlocks.nextSetBit(address + 1)) {
+            firm.getBlockAllocator().markUsed(address);
         }
 
-        FileTableService.getInstance().rebuildAllFileTables(firm);
+        List<Patch> oldPatchList = new ArrayList<>(firm.getPatches().asList());
+        PatchRegistry.Listener listener = firm.getPatches().getListener();
+        firm.setPatches(new PatchRegistry());
+
+        injectPatches(firm, oldPatchList);
+        firm.getPatches().setListener(listener); // patch order is the same, so listener gets no changes
+    }
+
+    /**
+     * Fills the data section with "FF" bytes starting from the given block. Quarantined blocks are kept.
+     *
+     * @param firm         firmware
+     * @param firstAddress first block address
+     */
+    private void clearBlocks(Firmware firm, int firstAddress) {
+        int blocksCount = firm.getBlockHeaders().length();
+        BitSet quarantinedBlocks = firm.getQuarantinedBlocks();
+        int address = firstAddress;
+        while (address < blocksCount) {
+            int end = quarantinedBlocks.nextSetBit(address);
+            if (end == -1 || end > blocksCount) {
+                end = blocksCount;
+            }
+            firm.getDataRegion().fill(Firmware.BLOCK_SIZE * address, Firmware.BLOCK_SIZE * (end - address), (byte) 0xFF);
+            firm.getBlockHeaders().clear(address, end);
+            address = end + 1;
+        }
     }
 
     /**
@@ -320,9 +992,13 @@ public class FirmwareService {
      * @param firm firmware
      */
     private void logBlocksAllocation(Firmware firm) {
-        for (int i = 0; i < firm.getBlocks().length; i++) {
-            if (firm.getBlocks()[i] != null) {
-                log.info("Block: " + i + " contains " + firm.getBlocks()[i]);
+        for (int i = 0; i < firm.getBlockOwners().length(); i++) {
+            if (firm.getBlockOwners().getOwner(i) != BlockOwnerTable.NO_OWNER) {
+                log.info("Block: " + i + " contains " + firm.getBlockOwners().getOwnerFileName(i));
+            } else if (firm.getQuarantinedBlocks().get(i)) {
+                log.info("Block: " + i + " is quarantined");
+            } else if (firm.getBlockAllocator().isUsed(i)) {
+                log.info("Block: " + i + " is reserved");
             } else {
                 log.info("Block: " + i + " is not used!!");
             }
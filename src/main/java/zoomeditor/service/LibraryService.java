@@ -0,0 +1,176 @@
+package main.java.zoomeditor.service;
+
+import main.java.zoomeditor.model.LibraryEntry;
+import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.model.PatchLibrary;
+import main.java.zoomeditor.util.IndexFileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Indexes a directory tree of patch files: file name, patch name, size, blocks count and format of every file.
+ * Index is stored in the cache directory, only new and changed files (by size and modification time)
+ * are parsed again. Files are parsed in parallel.
+ */
+public class LibraryService {
+    private static volatile LibraryService instance = null;
+    private static final Logger log = Logger.getLogger(LibraryService.class.getName());
+    private static final List<String> PATCH_FILE_EXTENSIONS = Arrays.asList("zdl", "zd2", "raw");
+    private static final int MAGIC = 0x5A46454C; // "ZFEL"
+    private static final int VERSION = 1;
+
+    private LibraryService() {
+    }
+
+    public static LibraryService getInstance() {
+        if (instance == null) {
+            synchronized (LibraryService.class) {
+                if (instance == null) {
+                    instance = new LibraryService();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Indexes the library directory and updates the stored index.
+     *
+     * @param root library directory
+     * @return indexed library
+     * @throws IOException if the directory cannot be read
+     */
+    public PatchLibrary indexLibrary(Path root) throws IOException {
+        long start = System.nanoTime();
+        Path absoluteRoot = root.toAbsolutePath().normalize();
+        Map<String, LibraryEntry> indexedEntries = readIndex(absoluteRoot);
+
+        List<File> patchFiles;
+        try (Stream<Path> paths = Files.walk(absoluteRoot)) {
+            patchFiles = paths.filter(Files::isRegularFile).filter(this::isPatchFile).sorted()
+                    .map(Path::toFile).collect(Collectors.toList());
+        }
+        List<LibraryEntry> entries = new ArrayList<>();
+        List<File> changedFiles = new ArrayList<>();
+        for (File file : patchFiles) {
+            LibraryEntry entry = indexedEntries.get(file.getPath());
+            if (entry != null && entry.isUpToDate()) {
+                entries.add(entry);
+            } else if (file.getName().length() > Patch.FILENAME_SIZE) {
+                log.warning("File name is too long, file is not indexed: " + file);
+            } else {
+                changedFiles.add(file);
+            }
+        }
+        entries.addAll(changedFiles.parallelStream().map(this::makeEntry).filter(entry -> entry != null)
+                .collect(Collectors.toList()));
+        entries.sort(Comparator.comparing(entry -> entry.getFile().getPath()));
+
+        writeIndex(absoluteRoot, entries);
+        log.info("Library " + absoluteRoot + ": " + entries.size() + " files, parsed: " + changedFiles.size()
+                + ", " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return new PatchLibrary(absoluteRoot, entries, changedFiles.size());
+    }
+
+    /**
+     * Parses the patch file.
+     *
+     * @param file patch file
+     * @return entry or null, if file cannot be read
+     */
+    private LibraryEntry makeEntry(File file) {
+        try {
+            long lastModified = file.lastModified(); // taken before reading, so later changes are detected
+            Patch patch = new Patch();
+            patch.setContent(Files.readAllBytes(file.toPath()));
+            return new LibraryEntry(file, lastModified, patch.getContentSize(), patch.extractNameFromContent());
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Patch file read error: " + file, e);
+            return null;
+        }
+    }
+
+    private boolean isPatchFile(Path path) {
+        String fileName = path.getFileName().toString();
+        return PATCH_FILE_EXTENSIONS.contains(fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase());
+    }
+
+    /**
+     * Reads the stored index of the library.
+     *
+     * @param root absolute library directory
+     * @return file path -> entry (empty, if index is not found or cannot be read)
+     */
+    private Map<String, LibraryEntry> readIndex(Path root) {
+        Path indexPath = getIndexPath(root);
+        try {
+            Map<String, LibraryEntry> entries = IndexFileUtils.read(indexPath, MAGIC, VERSION, in -> {
+                if (!root.toString().equals(in.readUTF())) {
+                    return null;
+                }
+                Map<String, LibraryEntry> storedEntries = new HashMap<>();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    File file = new File(in.readUTF());
+                    long lastModified = in.readLong();
+                    int size = in.readInt();
+                    String name = in.readBoolean() ? in.readUTF() : null;
+                    storedEntries.put(file.getPath(), new LibraryEntry(file, lastModified, size, name));
+                }
+                return storedEntries;
+            });
+            if (entries != null) {
+                return entries;
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Library index read error: " + indexPath, e);
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * Stores the index of the library. Errors are logged and ignored.
+     *
+     * @param root    absolute library directory
+     * @param entries entries
+     */
+    private void writeIndex(Path root, List<LibraryEntry> entries) {
+        Path indexPath = getIndexPath(root);
+        try {
+            IndexFileUtils.write(indexPath, MAGIC, VERSION, out -> {
+                out.writeUTF(root.toString());
+                out.writeInt(entries.size());
+                for (LibraryEntry entry : entries) {
+                    out.writeUTF(entry.getFile().getPath());
+                    out.writeLong(entry.getLastModified());
+                    out.writeInt(entry.getSize());
+                    out.writeBoolean(entry.getName() != null);
+                    if (entry.getName() != null) {
+                        out.writeUTF(entry.getName());
+                    }
+                }
+            });
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Library index write error: " + indexPath, e);
+        }
+    }
+
+    private Path getIndexPath(Path root) {
+        return ParseCacheService.getInstance().getCacheDirectory()
+                .resolve(String.format("library-%08x.index", root.toString().hashCode()));
+    }
+
+}
@@ -0,0 +1,283 @@
+package main.java.zoomeditor.service;
+
+import main.java.ZoomFirmwareEditor;
+import main.java.zoomeditor.model.AllocationPolicy;
+import main.java.zoomeditor.model.BlockAllocator;
+import main.java.zoomeditor.model.BlockHeaderIndex;
+import main.java.zoomeditor.model.BlockOwnerTable;
+import main.java.zoomeditor.model.FileTable;
+import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.ParseCacheEntry;
+import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.model.PatchContentView;
+import main.java.zoomeditor.model.PatchRegistry;
+import main.java.zoomeditor.util.IndexFileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of parsed firmware structure (BIN position, file table position, patches and their blocks).
+ * Entry is used only if the file has the same path, size and modification time,
+ * and if BIN system blocks (file tables) have the same checksum.
+ * On a hit cached block chains are validated against the block headers (one pass over the headers, as on a full
+ * parse), so a changed data region is parsed again. Patch content is read from the file only when it is requested.
+ */
+public class ParseCacheService {
+    private static volatile ParseCacheService instance = null;
+    private static final Logger log = Logger.getLogger(ParseCacheService.class.getName());
+    private static final int MAGIC = 0x5A464543; // "ZFEC"
+    private static final int VERSION = 1;
+    private static final String CACHE_FILE_EXTENSION = ".cache";
+
+    private ParseCacheService() {
+    }
+
+    public static ParseCacheService getInstance() {
+        if (instance == null) {
+            synchronized (ParseCacheService.class) {
+                if (instance == null) {
+                    instance = new ParseCacheService();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Reads the cache entry of the firmware file.
+     *
+     * @param firmwareFile firmware file
+     * @return entry or null, if cache is disabled, entry is not found or the file has been changed
+     */
+    public ParseCacheEntry read(File firmwareFile) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Path cachePath = getCachePath(firmwareFile);
+        try {
+            return IndexFileUtils.read(cachePath, MAGIC, VERSION, in -> {
+                ParseCacheEntry entry = new ParseCacheEntry();
+                entry.setFilePath(in.readUTF());
+                entry.setFileSize(in.readLong());
+                entry.setLastModified(in.readLong());
+                if (!entry.getFilePath().equals(firmwareFile.getAbsolutePath())
+                        || entry.getFileSize() != firmwareFile.length()
+                        || entry.getLastModified() != firmwareFile.lastModified()
+                        || isExcludeSequenceFiles() != in.readBoolean()) {
+                    return null;
+                }
+                entry.setExcludeSequenceFiles(isExcludeSequenceFiles());
+                entry.setBinStartPosition(in.readInt());
+                entry.setBinBlocksCount(in.readUnsignedShort());
+                entry.setFileTablePosition(in.readInt());
+                entry.setSystemRegionCrc(in.readInt());
+                int patchesCount = in.readUnsignedShort();
+                byte[][] fileTableItems = new byte[patchesCount][FileTable.ITEM_SIZE];
+                String[] patchNames = new String[patchesCount];
+                int[][] patchBlocks = new int[patchesCount][];
+                for (int i = 0; i < patchesCount; i++) {
+                    in.readFully(fileTableItems[i]);
+                    patchNames[i] = in.readBoolean() ? in.readUTF() : null;
+                    patchBlocks[i] = new int[in.readUnsignedShort()];
+                    for (int j = 0; j < patchBlocks[i].length; j++) {
+                        patchBlocks[i][j] = in.readUnsignedShort();
+                    }
+                }
+                entry.setFileTableItems(fileTableItems);
+                entry.setPatchNames(patchNames);
+                entry.setPatchBlocks(patchBlocks);
+                return entry;
+            });
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Parse cache read error: " + cachePath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks, that the entry's BIN position is still valid for the mapped firmware file.
+     *
+     * @param entry      cache entry
+     * @param fileBuffer firmware file content
+     * @return true, if BIN starts at the cached position
+     */
+    public boolean matchesBinStart(ParseCacheEntry entry, ByteBuffer fileBuffer) {
+        int position = entry.getBinStartPosition();
+        return position >= 0 && position + Firmware.BIN_START_PATTERN.length <= fileBuffer.limit()
+                && Firmware.BIN_START_MATCHER.indexOf(fileBuffer, position) == position;
+    }
+
+    /**
+     * Fills file table, block ownership and patch list of the firmware from the cache entry.
+     * Firmware's BIN image should be set. Every cached block chain is checked against the block header index.
+     *
+     * @param firm  firmware
+     * @param entry cache entry
+     * @return true, if firmware is filled; false, if entry does not match the firmware
+     */
+    public boolean restore(Firmware firm, ParseCacheEntry entry) {
+        if (firm.getBinBlocksCount() != entry.getBinBlocksCount()
+                || calculateSystemRegionCrc(firm) != entry.getSystemRegionCrc()) {
+            return false;
+        }
+        FileTable fileTable = new FileTable();
+        fileTable.setFileTablePosition(entry.getFileTablePosition());
+
+        int blocksCount = firm.getBinBlocksCount() - Firmware.FIRST_DATA_BLOCK;
+        BlockHeaderIndex headers = BlockHeaderIndex.build(firm.getDataRegion(), blocksCount);
+        BlockOwnerTable owners = new BlockOwnerTable(blocksCount);
+        BlockAllocator allocator = new BlockAllocator(blocksCount,
+                AllocationPolicy.fromName(ZoomFirmwareEditor.getProperty("allocationPolicy")));
+        PatchRegistry patches = new PatchRegistry();
+        for (int i = 0; i < entry.getFileTableItems().length; i++) {
+            Patch patch = PatchService.makePatchFromFileTableItem(entry.getFileTableItems()[i]);
+            int[] blocks = entry.getPatchBlocks()[i];
+            if (patch == null || blocks.length == 0 || patches.contains(patch.getFileName())) {
+                return false;
+            }
+            patch.setName(entry.getPatchNames()[i]);
+            patch.setId(owners.register(patch.getFileName()));
+            for (int address : blocks) {
+                if (address <= BlockAllocator.RESERVED_BLOCK || address >= blocksCount || allocator.isUsed(address)) {
+                    return false;
+                }
+                allocator.markUsed(address);
+                owners.assign(address, patch.getId());
+            }
+            if (!matchesBlockHeaders(headers, blocks, patch.getSize())) {
+                log.info("Block chain of " + patch.getFileName() + " does not match the parse cache");
+                return false;
+            }
+            patch.setContentView(new PatchContentView(firm.getDataRegion(), blocks, patch.getSize()));
+            patches.add(patch);
+        }
+
+        firm.setFileTable(fileTable);
+        firm.setBlockOwners(owners);
+        firm.setBlockAllocator(allocator);
+        firm.setPatches(patches);
+        firm.setIntegrityErrors(new ArrayList<>());
+        firm.setQuarantinedBlocks(new BitSet());
+        firm.setBlockHeaders(headers);
+        return true;
+    }
+
+    /**
+     * Checks, that block headers still link the cached blocks into the chain of the patch size
+     * (the same checks, as on the chain walk).
+     *
+     * @param headers block header index
+     * @param blocks  cached block addresses in the chain order
+     * @param size    patch size
+     * @return true, if headers match the cached chain
+     */
+    private boolean matchesBlockHeaders(BlockHeaderIndex headers, int[] blocks, int size) {
+        int contentSize = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            int address = blocks[i];
+            int nextAddress = i + 1 < blocks.length ? blocks[i + 1] : Firmware.EMPTY_ADDRESS;
+            int dataSize = headers.getDataSize(address);
+            if (headers.getNextAddress(address) != nextAddress
+                    || i > 0 && headers.getPreviousAddress(address) != blocks[i - 1]
+                    || dataSize > Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE) {
+                return false;
+            }
+            contentSize += dataSize;
+        }
+        return contentSize == size;
+    }
+
+    /**
+     * Stores parsed structure of the just loaded firmware. Firmware with integrity errors is not stored,
+     * so problems are reported again on the next load. Errors are logged and ignored.
+     *
+     * @param firm loaded firmware
+     */
+    public void store(Firmware firm) {
+        if (!isEnabled() || !firm.getIntegrityErrors().isEmpty()) {
+            return;
+        }
+        File firmwareFile = firm.getFirmwareFile();
+        Path cachePath = getCachePath(firmwareFile);
+        try {
+            IndexFileUtils.write(cachePath, MAGIC, VERSION, out -> {
+                out.writeUTF(firmwareFile.getAbsolutePath());
+                out.writeLong(firmwareFile.length());
+                out.writeLong(firmwareFile.lastModified());
+                out.writeBoolean(isExcludeSequenceFiles());
+                out.writeInt(firm.getBinStartPosition());
+                out.writeShort(firm.getBinBlocksCount());
+                out.writeInt(firm.getFileTable().getFileTablePosition());
+                out.writeInt(calculateSystemRegionCrc(firm));
+                out.writeShort(firm.getPatches().size());
+                for (Patch patch : firm.getPatches()) {
+                    out.write(patch.getFileTableItem());
+                    out.writeBoolean(patch.getName() != null);
+                    if (patch.getName() != null) {
+                        out.writeUTF(patch.getName());
+                    }
+                    int[] blocks = firm.getBlockOwners().getBlocks(patch.getId());
+                    out.writeShort(blocks.length);
+                    for (int address : blocks) {
+                        out.writeShort(address);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Parse cache write error: " + cachePath, e);
+        }
+    }
+
+    /**
+     * Calculates the checksum of BIN system blocks: 3 first blocks and all file tables.
+     *
+     * @param firm firmware with BIN image
+     * @return CRC32 value
+     */
+    private int calculateSystemRegionCrc(Firmware firm) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < Firmware.SYS_BLOCKS_COUNT; i++) {
+            crc.update(firm.getSystemRegion().slice(Firmware.BLOCK_SIZE * i, Firmware.BLOCK_SIZE));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the cache file of the firmware file. Entry contains the full path, so hash collisions are detected.
+     *
+     * @param firmwareFile firmware file
+     * @return cache file path
+     */
+    private Path getCachePath(File firmwareFile) {
+        return getCacheDirectory().resolve(String.format("%08x", firmwareFile.getAbsolutePath().hashCode())
+                + CACHE_FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the directory of local caches and indexes ("parseCacheDir" setting).
+     *
+     * @return cache directory
+     */
+    public Path getCacheDirectory() {
+        return Paths.get(ZoomFirmwareEditor.getProperty("parseCacheDir",
+                Paths.get(System.getProperty("user.home"), ".zoom-firmware-editor", "cache").toString()));
+    }
+
+    private boolean isEnabled() {
+        return !"false".equalsIgnoreCase(ZoomFirmwareEditor.getProperty("parseCache"));
+    }
+
+    private boolean isExcludeSequenceFiles() {
+        return "true".equalsIgnoreCase(ZoomFirmwareEditor.getProperty("excludeSequenceFiles"));
+    }
+
+}
@@ -1,19 +1,30 @@
 package main.java.zoomeditor.service;
 
 import main.java.ZoomFirmwareEditor;
+import main.java.zoomeditor.model.ExtractionReport;
 import main.java.zoomeditor.model.FileTable;
 import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.LibraryEntry;
 import main.java.zoomeditor.model.Patch;
 import main.java.zoomeditor.util.ArrayUtils;
 import main.java.zoomeditor.util.ByteUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class PatchService {
     private static volatile PatchService instance = null;
@@ -40,17 +51,15 @@ public class PatchService {
      * @return patch
      */
     static Patch makePatchFromFileTableItem(byte[] fileTableItem) {
-        final byte[] empty = ArrayUtils.makeAndFillArray(FileTable.SYSTEM_DATA_SIZE, (byte) 0xFF);
-        if (fileTableItem == null || fileTableItem.length == 0
-                || Arrays.equals(ArrayUtils.copyPart(fileTableItem, 0, empty.length), empty)) {
+        if (fileTableItem == null || fileTableItem.length == 0 || isEmptyFileTableItem(fileTableItem)) {
             return null;
         }
         Patch patch = new Patch();
         try {
             patch.setFileTableItem(fileTableItem);
             patch.setFileName(patch.extractFileNameFromFileTableItem());
-            patch.setAddress(ByteUtils.bytesToUnsignedShortAsInt(patch.getAddressBytes()));
-            patch.setSize(ByteUtils.bytesToInt(patch.getSizeBytes()));
+            patch.setAddress(ByteUtils.getUnsignedShort(fileTableItem, Patch.ADDR_OFFSET));
+            patch.setSize(ByteUtils.getPositiveInt(fileTableItem, Patch.SIZE_OFFSET));
         } catch (NumberFormatException e) {
             log.severe(e.getMessage() + "\nFile table item:\n" + ByteUtils.bytesToHexString(fileTableItem));
             return null;
@@ -58,6 +67,21 @@ public class PatchService {
         return patch;
     }
 
+    /**
+     * Checks, if the first bytes of file table item (address and size) are "FF".
+     *
+     * @param fileTableItem file table item
+     * @return true, if item is empty
+     */
+    private static boolean isEmptyFileTableItem(byte[] fileTableItem) {
+        for (int i = 0; i < FileTable.SYSTEM_DATA_SIZE && i < fileTableItem.length; i++) {
+            if (fileTableItem[i] != (byte) 0xFF) {
+                return false;
+            }
+        }
+        return fileTableItem.length >= FileTable.SYSTEM_DATA_SIZE;
+    }
+
     /**
      * Makes patch object from file.
      *
@@ -65,6 +89,28 @@ public class PatchService {
      * @return patch
      */
     public Patch makePatchFromFile(File patchFile) {
+        return makePatchFromFile(patchFile, null);
+    }
+
+    /**
+     * Makes patch object from indexed library file. Patch name is taken from the index,
+     * content is parsed only if the file has been changed since indexing.
+     *
+     * @param entry library entry
+     * @return patch
+     */
+    public Patch makePatchFromLibraryEntry(LibraryEntry entry) {
+        return makePatchFromFile(entry.getFile(), entry.isUpToDate() ? entry : null);
+    }
+
+    /**
+     * Makes patch object from file.
+     *
+     * @param patchFile patch file
+     * @param entry     library entry of the file or null, if name should be extracted from content
+     * @return patch
+     */
+    private Patch makePatchFromFile(File patchFile, LibraryEntry entry) {
         log.info("patchFile: " + patchFile.getAbsolutePath());
         if (patchFile.getName().length() > Patch.FILENAME_SIZE) {
             log.severe("File name is too long: " + patchFile.getName());
@@ -73,10 +119,9 @@ public class PatchService {
         }
         try {
             byte[] patchContent = Files.readAllBytes(patchFile.toPath());
-            byte[] sizeBytes = ByteUtils.intToBytes(patchContent.length);
             byte[] fileTableItem = ArrayUtils.makeAndFillArray(FileTable.ITEM_SIZE, (byte) 0xFF);
             fileTableItem[Patch.ADDR_OFFSET + Patch.ADDR_SIZE] = (byte) 0x01;
-            System.arraycopy(sizeBytes, 0, fileTableItem, Patch.SIZE_OFFSET, Patch.SIZE_SIZE);
+            ByteUtils.putInt(fileTableItem, Patch.SIZE_OFFSET, patchContent.length);
             System.arraycopy(ArrayUtils.makeAndFillArray(FileTable.ITEM_SIZE, (byte) 0x00), 0,
                     fileTableItem, Patch.FILENAME_OFFSET, Patch.FILENAME_SIZE);
             System.arraycopy(patchFile.getName().getBytes(), 0, fileTableItem, Patch.FILENAME_OFFSET,
@@ -90,7 +135,8 @@ public class PatchService {
             }
 
             patch.setContent(patchContent);
-            patch.setName(patch.extractNameFromContent());
+            patch.setName(entry != null && entry.getSize() == patchContent.length ? entry.getName()
+                    : patch.extractNameFromContent());
 
             // log.info(patch.toString());
             return patch;
@@ -100,6 +146,16 @@ public class PatchService {
         }
     }
 
+    /**
+     * Makes patch objects from files. Files are read and parsed in parallel.
+     *
+     * @param patchFiles patch files
+     * @return patches in the same order as files
+     */
+    public List<Patch> makePatchesFromFiles(List<File> patchFiles) {
+        return patchFiles.parallelStream().map(this::makePatchFromFile).collect(Collectors.toList());
+    }
+
     /**
      * Calculates the patch blocks count.
      *
@@ -120,19 +176,92 @@ public class PatchService {
      */
     public boolean savePatchFile(Firmware firm, String originalFileName, Path filePath) {
         log.info("Saving file: " + originalFileName + " as " + filePath.getFileName().toString());
-        for (Patch patch : firm.getPatches()) {
-            if (originalFileName.equals(patch.getFileName())) {
+        Patch patch = firm.getPatches().getByFileName(originalFileName);
+        if (patch == null) {
+            return false;
+        }
+        try {
+            writePatchFile(patch, filePath);
+            log.info("Success!");
+            return true;
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Failure! " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Saves patch files into the directory (with original file names). Files are written in parallel
+     * by a bounded number of workers, the number can be set with the "extractThreads" setting.
+     * Repeated file names are saved once, so two workers never write the same file.
+     *
+     * @param firm      firmware
+     * @param fileNames file names of patches to save
+     * @param directory target directory
+     * @return extraction report
+     */
+    public ExtractionReport savePatchFiles(Firmware firm, List<String> fileNames, Path directory) {
+        List<String> uniqueFileNames = new ArrayList<>(new LinkedHashSet<>(fileNames));
+        log.info("Saving " + uniqueFileNames.size() + " files into " + directory);
+        ExtractionReport report = new ExtractionReport();
+        long start = System.nanoTime();
+        int threads;
+        try {
+            threads = Integer.parseInt(ZoomFirmwareEditor.getProperty("extractThreads"));
+        } catch (NumberFormatException e) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, uniqueFileNames.size())));
+        try {
+            Files.createDirectories(directory);
+            List<Future<Long>> futures = new ArrayList<>();
+            for (String fileName : uniqueFileNames) {
+                Patch patch = firm.getPatches().getByFileName(fileName);
+                futures.add(executor.submit(() -> {
+                    if (patch == null) {
+                        throw new IOException("Patch is not found: " + fileName);
+                    }
+                    writePatchFile(patch, directory.resolve(fileName));
+                    return (long) patch.getContentSize();
+                }));
+            }
+            long extractedBytes = 0;
+            for (int i = 0; i < futures.size(); i++) {
                 try {
-                    Files.write(filePath, patch.getContent());
-                    log.info("Success!");
-                    return true;
-                } catch (IOException e) {
-                    log.log(Level.SEVERE, "Failure! " + e.getMessage(), e);
-                    return false;
+                    extractedBytes += futures.get(i).get();
+                    report.getExtractedFileNames().add(uniqueFileNames.get(i));
+                } catch (ExecutionException e) {
+                    log.log(Level.SEVERE, uniqueFileNames.get(i) + ": " + e.getCause().getMessage(), e.getCause());
+                    report.getFailedFileNames().add(uniqueFileNames.get(i));
                 }
             }
+            report.setExtractedBytes(extractedBytes);
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Failure! " + e.getMessage(), e);
+            report.getFailedFileNames().addAll(uniqueFileNames);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Patch saving is interrupted!");
+        } finally {
+            executor.shutdownNow();
+        }
+        report.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        log.info(report.toString());
+        return report;
+    }
+
+    /**
+     * Writes the patch content into the file. Content is streamed from firmware blocks straight into the file channel.
+     *
+     * @param patch    patch
+     * @param filePath file system path
+     * @throws IOException if an I/O error occurs
+     */
+    private void writePatchFile(Patch patch, Path filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            patch.writeContent(channel);
         }
-        return false;
     }
 
 }
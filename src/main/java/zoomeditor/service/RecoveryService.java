@@ -0,0 +1,214 @@
+package main.java.zoomeditor.service;
+
+import main.java.zoomeditor.model.BlockAllocator;
+import main.java.zoomeditor.model.BlockHeaderIndex;
+import main.java.zoomeditor.model.BlockOwnerTable;
+import main.java.zoomeditor.model.Firmware;
+import main.java.zoomeditor.model.IntegrityError;
+import main.java.zoomeditor.model.Patch;
+import main.java.zoomeditor.model.RecoveryReport;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recovers patches, which were not loaded because of broken block chains.
+ * All block headers are scanned once (using firmware's block header index): chain fragments are rebuilt
+ * from the next-block links, then fragments are matched to not loaded file table items by start address and size.
+ */
+public class RecoveryService {
+    private static volatile RecoveryService instance = null;
+    private static final Logger log = Logger.getLogger(RecoveryService.class.getName());
+    private static final int NO_SUCCESSOR = -1;
+
+    private RecoveryService() {
+    }
+
+    public static RecoveryService getInstance() {
+        if (instance == null) {
+            synchronized (RecoveryService.class) {
+                if (instance == null) {
+                    instance = new RecoveryService();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Scans block headers of the loaded firmware. Firmware is not modified.
+     *
+     * @param firm firmware
+     * @return recovery report
+     */
+    public RecoveryReport scan(Firmware firm) {
+        RecoveryReport report = new RecoveryReport();
+        BlockHeaderIndex headers = firm.getBlockHeaders();
+        BlockOwnerTable owners = firm.getBlockOwners();
+        int blocksCount = headers.length();
+
+        // link every block to its next block, count references to every block
+        int[] successors = new int[blocksCount];
+        byte[] predecessorsCounts = new byte[blocksCount]; // 0, 1 or 2 (several)
+        BitSet chainBlocks = new BitSet(blocksCount);
+        for (int address = BlockAllocator.RESERVED_BLOCK + 1; address < blocksCount; address++) {
+            if (isChainBlock(headers, address)) {
+                chainBlocks.set(address);
+            }
+        }
+        for (int address = chainBlocks.nextSetBit(0); address >= 0; address = chainBlocks.nextSetBit(address + 1)) {
+            int next = headers.getNextAddress(address);
+            if (next < blocksCount && chainBlocks.get(next)) {
+                successors[address] = next;
+                if (predecessorsCounts[next] < 2) {
+                    predecessorsCounts[next]++;
+                }
+            } else {
+                successors[address] = NO_SUCCESSOR; // last block or broken link
+            }
+        }
+
+        // fragments start from blocks without references (looped fragments are counted separately)
+        BitSet visited = new BitSet(blocksCount);
+        int fragmentsCount = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int head = chainBlocks.nextSetBit(0); head >= 0; head = chainBlocks.nextSetBit(head + 1)) {
+                if (visited.get(head) || pass == 0 && predecessorsCounts[head] != 0) {
+                    continue;
+                }
+                fragmentsCount++;
+                for (int address = head; address != NO_SUCCESSOR && !visited.get(address); address = successors[address]) {
+                    visited.set(address);
+                    if (predecessorsCounts[address] > 1) {
+                        report.getCrossLinkedBlocks().set(address);
+                    }
+                }
+            }
+        }
+        report.setFragmentsCount(fragmentsCount);
+
+        // match fragments to not loaded file table items
+        BitSet claimedBlocks = new BitSet(blocksCount);
+        for (IntegrityError error : firm.getIntegrityErrors()) {
+            Patch item = error.getPatch();
+            int[] blocks = new int[16];
+            int count = 0;
+            int size = 0;
+            boolean isRecoverable = item.getAddress() < blocksCount && chainBlocks.get(item.getAddress());
+            BitSet chain = new BitSet(blocksCount);
+            for (int address = isRecoverable ? item.getAddress() : NO_SUCCESSOR;
+                 address != NO_SUCCESSOR; address = successors[address]) {
+                if (chain.get(address)) {
+                    isRecoverable = false; // looped chain
+                    break;
+                }
+                chain.set(address);
+                if (owners.getOwner(address) != BlockOwnerTable.NO_OWNER || claimedBlocks.get(address)) {
+                    isRecoverable = false; // blocks of other patch
+                    continue;
+                }
+                if (count == blocks.length) {
+                    blocks = Arrays.copyOf(blocks, count * 2);
+                }
+                blocks[count++] = address;
+                size += headers.getDataSize(address);
+                if (successors[address] == NO_SUCCESSOR && headers.getNextAddress(address) != Firmware.EMPTY_ADDRESS) {
+                    isRecoverable = false; // broken link
+                }
+            }
+            if (count == 0 || size != item.getSize() || firm.getPatches().contains(item.getFileName())) {
+                isRecoverable = false; // file name of a loaded patch is not loaded twice
+            }
+            for (int i = 0; i < count; i++) {
+                claimedBlocks.set(blocks[i]);
+            }
+            if (isRecoverable) {
+                report.getRecoverableChains().put(item, Arrays.copyOf(blocks, count));
+            } else {
+                for (int i = 0; i < count; i++) {
+                    report.getBlocksToQuarantine().set(blocks[i]);
+                }
+            }
+        }
+
+        // chain blocks, that belong to nobody
+        for (int address = chainBlocks.nextSetBit(0); address >= 0; address = chainBlocks.nextSetBit(address + 1)) {
+            if (owners.getOwner(address) == BlockOwnerTable.NO_OWNER && !claimedBlocks.get(address)
+                    && !firm.getQuarantinedBlocks().get(address)) {
+                report.getOrphanedBlocks().set(address);
+            }
+        }
+        log.info("Block chains scan: " + report);
+        return report;
+    }
+
+    /**
+     * Reattaches recoverable chains (previous-block links are repaired) and quarantines blocks of other
+     * not loaded patches, so they are not overwritten by the next injection.
+     *
+     * @param firm   firmware
+     * @param report report of the scan, which was done right before
+     */
+    public void recover(Firmware firm, RecoveryReport report) {
+        int recoveredCount = 0; // recovered patches are inserted in the file table order
+        for (Map.Entry<Patch, int[]> entry : report.getRecoverableChains().entrySet()) {
+            Patch patch = entry.getKey();
+            if (firm.getPatches().contains(patch.getFileName())) {
+                log.warning("Patch " + patch.getFileName() + " is already present, its chain is quarantined");
+                for (int address : entry.getValue()) {
+                    report.getBlocksToQuarantine().set(address);
+                }
+                continue;
+            }
+            patch.setId(firm.getBlockOwners().register(patch.getFileName()));
+            for (int address : entry.getValue()) {
+                firm.getQuarantinedBlocks().clear(address); // blocks of not loaded patches are quarantined on load
+                firm.getBlockAllocator().markUsed(address);
+                firm.getBlockOwners().assign(address, patch.getId());
+            }
+            FirmwareService.getInstance().relinkPatchBlocks(firm, patch);
+            try {
+                patch.setName(patch.extractNameFromContent());
+            } catch (Exception e) {
+                log.log(Level.SEVERE, patch.getFileName() + " content getting error: " + e.getMessage(), e);
+            }
+
+            for (Iterator<IntegrityError> it = firm.getIntegrityErrors().iterator(); it.hasNext(); ) {
+                IntegrityError error = it.next();
+                if (error.getPatch() == patch) {
+                    firm.getPatches().add(Math.min(error.getPosition() + recoveredCount, firm.getPatches().size()), patch);
+                    it.remove();
+                    recoveredCount++;
+                }
+            }
+            log.info("Recovered: " + patch.getFileName());
+        }
+
+        BitSet blocksToQuarantine = report.getBlocksToQuarantine();
+        for (int address = blocksToQuarantine.nextSetBit(0); address >= 0;
+             address = blocksToQuarantine.nextSetBit(address + 1)) {
+            if (!firm.getBlockAllocator().isUsed(address)) {
+                firm.getBlockAllocator().markUsed(address);
+                firm.getQuarantinedBlocks().set(address);
+            }
+        }
+        log.info("Quarantined blocks: " + firm.getQuarantinedBlocks().cardinality());
+        FileTableService.getInstance().rebuildAllFileTables(firm);
+    }
+
+    /**
+     * Checks, if block header looks like a header of a chain block.
+     *
+     * @param headers block header index
+     * @param address block address
+     * @return true, if block data size is valid
+     */
+    private boolean isChainBlock(BlockHeaderIndex headers, int address) {
+        return headers.getDataSize(address) <= Firmware.BLOCK_SIZE - Firmware.BLOCK_INFO_SIZE;
+    }
+
+}
@@ -0,0 +1,112 @@
+package main.java.zoomeditor.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Compiled byte pattern: search tables are computed once, so the same pattern can be searched many times.
+ * <p>
+ * Candidates are found by scanning for the pattern's first byte eight bytes at a time (bytes of a "long" word
+ * are compared at once), then every candidate is checked and the search is continued
+ * using Boyer-Moore-Horspool shift of the candidate's window.
+ */
+public class BytePattern {
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final byte[] pattern;
+    private final int[] shifts = new int[256]; // byte value -> window shift
+    private final long firstByteWord; // first byte repeated 8 times
+
+    public BytePattern(byte[] pattern) {
+        if (pattern == null || pattern.length == 0) {
+            throw new IllegalArgumentException("Pattern is empty");
+        }
+        this.pattern = pattern.clone();
+        Arrays.fill(shifts, pattern.length);
+        for (int i = 0; i < pattern.length - 1; i++) {
+            shifts[pattern[i] & 0xFF] = pattern.length - 1 - i;
+        }
+        firstByteWord = (pattern[0] & 0xFFL) * LOW_BITS;
+    }
+
+    public int length() {
+        return pattern.length;
+    }
+
+    /**
+     * Finds the first occurrence of the pattern in the array.
+     *
+     * @param data   array to search in
+     * @param offset position to start from
+     * @return position of the first occurrence or -1, if pattern is not found
+     */
+    public int indexOf(byte[] data, int offset) {
+        return indexOf(ByteBuffer.wrap(data), offset);
+    }
+
+    /**
+     * Finds the first occurrence of the pattern in the buffer (between offset and buffer's limit).
+     * Absolute reads are used, so buffer's position is not changed and mapped buffers are read page by page.
+     *
+     * @param data   buffer to search in
+     * @param offset position to start from
+     * @return position of the first occurrence or -1, if pattern is not found
+     */
+    public int indexOf(ByteBuffer data, int offset) {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN); // order of the given buffer is kept
+        int lastStart = buffer.limit() - pattern.length;
+        int last = pattern.length - 1;
+        int position = Math.max(offset, 0);
+        while (position <= lastStart) {
+            position = nextCandidate(buffer, position, lastStart);
+            if (position == -1) {
+                return -1;
+            }
+            byte lastByte = buffer.get(position + last);
+            if (lastByte == pattern[last] && matchesAt(buffer, position)) {
+                return position;
+            }
+            position += shifts[lastByte & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the next position, where the first byte of the pattern occurs.
+     *
+     * @param buffer    little-endian buffer
+     * @param from      position to start from
+     * @param lastStart last possible start of the pattern
+     * @return position or -1, if there are no candidates
+     */
+    private int nextCandidate(ByteBuffer buffer, int from, int lastStart) {
+        int i = from;
+        // 8 bytes at once: every byte, that is equal to the first byte, becomes zero
+        for (; i + Long.BYTES <= buffer.limit() && i <= lastStart; i += Long.BYTES) {
+            long word = buffer.getLong(i) ^ firstByteWord;
+            long zeroBytes = (word - LOW_BITS) & ~word & HIGH_BITS;
+            if (zeroBytes != 0) {
+                int candidate = i + (Long.numberOfTrailingZeros(zeroBytes) >>> 3); // lowest flagged byte is exact
+                return candidate <= lastStart ? candidate : -1;
+            }
+        }
+        for (; i <= lastStart; i++) {
+            if (buffer.get(i) == pattern[0]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matchesAt(ByteBuffer buffer, int position) {
+        for (int i = 1; i < pattern.length - 1; i++) {
+            if (buffer.get(position + i) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -1,55 +1,30 @@
 package main.java.zoomeditor.util;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 
 public class ByteUtils {
 
     /**
-     * Finds the first occurrence of the pattern in the text. Knuth-Morris-Pratt algorithm for pattern matching is used.
+     * Finds the first occurrence of the pattern in the array.
+     * Pattern is compiled on every call, use {@link BytePattern} for patterns, that are searched repeatedly.
      *
-     * @see <a href="https://stackoverflow.com/questions/1507780/searching-for-a-sequence-of-bytes-in-a-binary-file-with-java">Stackoverflow</a>
+     * @see BytePattern#indexOf(byte[], int)
      */
     public static int indexOf(byte[] data, byte[] pattern, int offset) {
-        if (data.length == 0) return -1;
-
-        int[] failure = computeFailure(pattern);
-        int j = 0;
-
-        for (int i = offset; i < data.length; i++) {
-            while (j > 0 && pattern[j] != data[i]) {
-                j = failure[j - 1];
-            }
-            if (pattern[j] == data[i]) {
-                j++;
-            }
-            if (j == pattern.length) {
-                return i - pattern.length + 1;
-            }
-        }
-        return -1;
+        return new BytePattern(pattern).indexOf(data, offset);
     }
 
     /**
-     * Computes the failure function using a boot-strapping process, where the pattern is matched against itself.
+     * Finds the first occurrence of the pattern in the buffer (between offset and buffer's limit).
+     * Pattern is compiled on every call, use {@link BytePattern} for patterns, that are searched repeatedly.
      *
-     * @see <a href="https://stackoverflow.com/questions/1507780/searching-for-a-sequence-of-bytes-in-a-binary-file-with-java">Stackoverflow</a>
+     * @see BytePattern#indexOf(ByteBuffer, int)
      */
-    private static int[] computeFailure(byte[] pattern) {
-        int[] failure = new int[pattern.length];
-
-        int j = 0;
-        for (int i = 1; i < pattern.length; i++) {
-            while (j > 0 && pattern[j] != pattern[i]) {
-                j = failure[j - 1];
-            }
-            if (pattern[j] == pattern[i]) {
-                j++;
-            }
-            failure[i] = j;
-        }
-
-        return failure;
+    public static int indexOf(ByteBuffer data, byte[] pattern, int offset) {
+        return new BytePattern(pattern).indexOf(data, offset);
     }
 
     /**
@@ -75,7 +50,7 @@ public class ByteUtils {
         if (bytes == null || bytes.length != 2) {
             throw new ArithmeticException("invalid byte input");
         }
-        return Short.toUnsignedInt(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getShort());
+        return getUnsignedShort(bytes, 0);
     }
 
     /**
@@ -87,26 +62,102 @@ public class ByteUtils {
         if (bytes == null || bytes.length != 4) {
             throw new NumberFormatException("byte to int conversion error: invalid input");
         }
-        int result = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
-        if (result < 0) {
-            throw new NumberFormatException("byte to int conversion error: int result is too big; use long!");
-        }
-        //return Math.toIntExact(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong());
-        return result;
+        return getPositiveInt(bytes, 0);
     }
 
     /**
      * Converts short to byte[].
      */
     public static byte[] shortToBytes(short value) {
-        return ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort(value).array();
+        byte[] bytes = new byte[2];
+        putShort(bytes, 0, value);
+        return bytes;
     }
 
     /**
      * Converts int to byte[].
      */
     public static byte[] intToBytes(int value) {
-        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+        byte[] bytes = new byte[4];
+        putInt(bytes, 0, value);
+        return bytes;
+    }
+
+    /**
+     * Reads little-endian unsigned short at given position. No objects are created.
+     */
+    public static int getUnsignedShort(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8;
+    }
+
+    /**
+     * Reads little-endian unsigned short at given (absolute) position. Buffer's position and byte order are ignored.
+     */
+    public static int getUnsignedShort(ByteBuffer buffer, int position) {
+        return (buffer.get(position) & 0xFF) | (buffer.get(position + 1) & 0xFF) << 8;
+    }
+
+    /**
+     * Reads little-endian int at given position. No objects are created.
+     */
+    public static int getInt(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8
+                | (bytes[position + 2] & 0xFF) << 16 | bytes[position + 3] << 24;
+    }
+
+    /**
+     * Reads little-endian int at given (absolute) position. Buffer's position and byte order are ignored.
+     */
+    public static int getInt(ByteBuffer buffer, int position) {
+        return (buffer.get(position) & 0xFF) | (buffer.get(position + 1) & 0xFF) << 8
+                | (buffer.get(position + 2) & 0xFF) << 16 | buffer.get(position + 3) << 24;
+    }
+
+    /**
+     * Reads little-endian int at given position, that should fit into 2^31 (see {@link #bytesToInt(byte[])}).
+     */
+    public static int getPositiveInt(byte[] bytes, int position) {
+        int result = getInt(bytes, position);
+        if (result < 0) {
+            throw new NumberFormatException("byte to int conversion error: int result is too big; use long!");
+        }
+        return result;
+    }
+
+    /**
+     * Writes lower 2 bytes of the value in little-endian order at given position.
+     */
+    public static void putShort(byte[] bytes, int position, int value) {
+        bytes[position] = (byte) value;
+        bytes[position + 1] = (byte) (value >>> 8);
+    }
+
+    /**
+     * Writes lower 2 bytes of the value in little-endian order at given (absolute) position.
+     */
+    public static void putShort(ByteBuffer buffer, int position, int value) {
+        buffer.put(position, (byte) value);
+        buffer.put(position + 1, (byte) (value >>> 8));
+    }
+
+    /**
+     * Writes int in little-endian order at given position.
+     */
+    public static void putInt(byte[] bytes, int position, int value) {
+        bytes[position] = (byte) value;
+        bytes[position + 1] = (byte) (value >>> 8);
+        bytes[position + 2] = (byte) (value >>> 16);
+        bytes[position + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Writes int in little-endian order at given (absolute) position.
+     */
+    public static void putInt(ByteBuffer buffer, int position, int value) {
+        buffer.put(position, (byte) value);
+        buffer.put(position + 1, (byte) (value >>> 8));
+        buffer.put(position + 2, (byte) (value >>> 16));
+        buffer.put(position + 3, (byte) (value >>> 24));
     }
 
     /**
@@ -124,4 +175,36 @@ public class ByteUtils {
         return sb.toString();
     }
 
+    /**
+     * Releases the file mapping at once, without waiting for the garbage collection
+     * (file cannot be replaced or truncated on Windows, while it is mapped).
+     * NB! Buffer and all its views (slices, duplicates) must not be used afterwards.
+     *
+     * @param buffer buffer, returned by FileChannel.map()
+     * @return true, if buffer is unmapped; false, if Java runtime does not allow unmapping
+     */
+    public static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            try {
+                // Java 9 and later
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
 }
@@ -0,0 +1,88 @@
+package main.java.zoomeditor.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Binary index files of the cache directory (parse cache, patch library and firmware catalogue).
+ * Every file starts with the magic number (int) and the format version (short); the rest is written and read
+ * by the caller. Files are replaced atomically, so readers never see a half-written file.
+ */
+public class IndexFileUtils {
+
+    /**
+     * Writes the content of the index file.
+     */
+    public interface ContentWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads the content of the index file.
+     *
+     * @param <T> read value type
+     */
+    public interface ContentReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Reads the index file, if it exists and has the expected magic number and version.
+     *
+     * @param path    index file
+     * @param magic   magic number
+     * @param version format version
+     * @param reader  content reader
+     * @param <T>     read value type
+     * @return value of the reader or null, if file is not found or has another format
+     * @throws IOException if the file cannot be read
+     */
+    public static <T> T read(Path path, int magic, int version, ContentReader<T> reader) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != magic || in.readShort() != version) {
+                return null;
+            }
+            return reader.read(in);
+        }
+    }
+
+    /**
+     * Writes the index file: the content is written into a temporary file next to it,
+     * then the temporary file is moved over the index file (atomically, if the file system supports it).
+     *
+     * @param path    index file
+     * @param magic   magic number
+     * @param version format version
+     * @param writer  content writer
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, int magic, int version, ContentWriter writer) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                out.writeInt(magic);
+                out.writeShort(version);
+                writer.write(out);
+            }
+            try {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+}